@@ -0,0 +1,349 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import screen.KeyEvent;
+import screen.Screen;
+import screen.SelectionComponent;
+import screen.TerminalInput;
+import screen.VirtualTerminal;
+
+/**
+ * Runs scripted sessions against a game drawing to a VirtualTerminal (which
+ * doesn't allocate as it's written to), and checks the bytes allocated per
+ * operation on each thread against a budget. Exits with status 1 if any is
+ * over budget. Run by the jmh profile before the benchmarks. <br>
+ *
+ * The game loop isn't started. Key presses are queued with keyPressed() as
+ * the input thread would, then the game is updated and drawn on this thread
+ * one step at a time, and the encoder and terminal sink threads are waited
+ * for after every frame. Allocations are read from ThreadMXBean, so the JVM
+ * has to support thread allocation counters (HotSpot does). <br>
+ *
+ * The sessions are run WARMUP_PASSES times before the run which is checked,
+ * so the JIT has compiled the hot paths (which removes the allocation of
+ * objects that don't escape, among others).
+ *
+ * @author kaiyu
+ */
+public final class AllocationBudget {
+    private static final int LINES = 30, COLUMNS = 100;
+    private static final int WARMUP_PASSES = 10;
+
+    /**
+     * Bytes allocated per operation allowed for each measurement. Moving
+     * the cursor, encoding and writing don't allocate at all. Flagging makes
+     * the key press's pending action and the flags left text, and opening a
+     * cell the pending action, its reveal event (only made when the flight
+     * recorder is up) and any growth of the reveal queue. Taking a
+     * snapshot and rendering allocates a snapshot and the rendered output of
+     * the components which changed, since neither is ever modified once
+     * made.
+     */
+    private static final long UPDATE_BUDGET = 0;
+    private static final long FLAG_BUDGET = 256;
+    private static final long ENCODE_BUDGET = 0;
+    private static final long WRITE_BUDGET = 0;
+    private static final long MENU_BUDGET = 512;
+    private static final long RENDER_BUDGET = 1024;
+    private static final long CASCADE_BUDGET = 512;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Bytes allocated by one thread over a number of operations. The
+     * counters are read on this thread, so what reading them allocates is
+     * only taken off measurements of this thread.
+     */
+    private static final class Measurement {
+        final String name;
+        final long budget;
+        private final long threadId;
+        private final long overhead;
+        private long bytes;
+        private long operations;
+        private long start;
+
+        Measurement(String name, long budget, Thread thread) {
+            this.name = name;
+            this.budget = budget;
+            this.threadId = thread.getId();
+            this.overhead = thread == Thread.currentThread() ? readOverhead : 0;
+        }
+
+        void begin() {
+            start = THREADS.getThreadAllocatedBytes(threadId);
+        }
+
+        void end() {
+            bytes += THREADS.getThreadAllocatedBytes(threadId) - start - overhead;
+            operations++;
+        }
+
+        double perOperation() {
+            return operations == 0 ? 0 : (double) bytes / operations;
+        }
+
+        boolean overBudget() {
+            return perOperation() > budget;
+        }
+    }
+
+    // Bytes allocated on this thread by reading a counter
+    private static long readOverhead;
+
+    private final Screen screen;
+    private final TerminalInput input;
+    private final File scoreFile;
+    private final Random random = new Random(1);
+    private final List<Measurement> measurements = new ArrayList<>();
+    private boolean checking;
+
+    private Thread encoderThread;
+    private Thread sinkThread;
+
+    private AllocationBudget(File scoreFile) {
+        this.screen = new Screen(new VirtualTerminal(LINES + 1, COLUMNS), LINES, COLUMNS);
+        this.input = new TerminalInput(InputStream.nullInputStream());
+        this.scoreFile = scoreFile;
+    }
+
+    /**
+     * Returns the measurement with the name, which is only reported if it's
+     * made while checking
+     */
+    private Measurement measure(String name, long budget, Thread thread) {
+        for (Measurement m : measurements) {
+            if (m.name.equals(name)) {
+                return m;
+            }
+        }
+        Measurement m = new Measurement(name, budget, thread);
+        if (checking) {
+            measurements.add(m);
+        }
+        return m;
+    }
+
+    /**
+     * Finds the writer's threads, which are started with the first frame
+     */
+    private void findThreads() throws IOException {
+        if (encoderThread != null) return;
+        screen.refresh();
+        screen.flush();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("terminal-writer")) {
+                encoderThread = t;
+            } else if (t.getName().equals("sink-terminal")) {
+                sinkThread = t;
+            }
+        }
+        if (encoderThread == null || sinkThread == null)
+            throw new IllegalStateException("Writer threads not found");
+    }
+
+    private Minesweeper newGame(int columns, int rows, int mines) {
+        synchronized (screen.getLock()) {
+            screen.clearComponents();
+        }
+        Minesweeper game = new Minesweeper(screen, input);
+        game.setScoreFile(scoreFile.getPath());
+        game.startGame(columns, rows, mines);
+        return game;
+    }
+
+    /**
+     * Moves through the menu with the arrow keys, then chooses. The frames
+     * are drawn on the render thread, which isn't measured.
+     */
+    private void menu() throws IOException {
+        SelectionComponent menu;
+        synchronized (screen.getLock()) {
+            screen.clearComponents();
+            menu = new SelectionComponent(input, 2, 3, 1, new String[] {
+                "Beginner", "Intermediate", "Expert", "View scores", "Exit"
+            });
+            screen.addComponent(menu);
+        }
+        KeyEvent[] keys = new KeyEvent[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new KeyEvent(random.nextInt(3) == 0 ? KeyEvent.UP : KeyEvent.DOWN);
+        }
+        Measurement keyPress = measure("menu key press", MENU_BUDGET, Thread.currentThread());
+        for (KeyEvent key : keys) {
+            keyPress.begin();
+            menu.keyPressed(key);
+            keyPress.end();
+        }
+        menu.keyPressed(new KeyEvent(KeyEvent.ENTER));
+        if (!menu.getResult().isDone())
+            throw new IllegalStateException("Menu choice not made");
+    }
+
+    /**
+     * Presses the keys one by one, updating and drawing the game after each.
+     * The encoder and sink start on a frame as soon as refresh() hands it
+     * over, so their counters are read before refresh() and after flush().
+     */
+    private void play(Minesweeper game, KeyEvent[] keys, String name, long updateBudget) throws IOException {
+        Measurement update = measure(name, updateBudget, Thread.currentThread());
+        Measurement render = measure(name + ": render", RENDER_BUDGET, Thread.currentThread());
+        Measurement encode = measure(name + ": encode", ENCODE_BUDGET, encoderThread);
+        Measurement write = measure(name + ": write", WRITE_BUDGET, sinkThread);
+        for (KeyEvent key : keys) {
+            game.keyPressed(key);
+            update.begin();
+            synchronized (screen.getLock()) {
+                game.handleInput();
+                while (!game.revealSome(Long.MAX_VALUE)) {
+                    // Cascades are done in one go
+                }
+                game.continueReveal();
+                game.updateView();
+            }
+            update.end();
+
+            encode.begin();
+            write.begin();
+            render.begin();
+            screen.refresh();
+            render.end();
+            screen.flush();
+            encode.end();
+            write.end();
+        }
+    }
+
+    /**
+     * Moves the cursor 1000 times around an expert board
+     */
+    private void cursorMoves() throws IOException {
+        Minesweeper game = newGame(30, 16, 99);
+        int[] arrows = {KeyEvent.UP, KeyEvent.DOWN, KeyEvent.LEFT, KeyEvent.RIGHT};
+        KeyEvent[] keys = new KeyEvent[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new KeyEvent(arrows[random.nextInt(arrows.length)]);
+        }
+        play(game, keys, "cursor move", UPDATE_BUDGET);
+    }
+
+    /**
+     * Opens cells on boards with few mines, so most open a large area
+     */
+    private void cascades() throws IOException {
+        for (int n = 0; n < 10; n++) {
+            Minesweeper game = newGame(30, 16, 5);
+            List<KeyEvent> keys = new ArrayList<>();
+            int x = 0, y = 0;
+            for (int i = 0; i < 5; i++) {
+                int toX = random.nextInt(30), toY = random.nextInt(16);
+                if (game.cells[toY][toX].isMine) continue;
+                for (; x < toX; x++) keys.add(new KeyEvent(KeyEvent.RIGHT));
+                for (; x > toX; x--) keys.add(new KeyEvent(KeyEvent.LEFT));
+                for (; y < toY; y++) keys.add(new KeyEvent(KeyEvent.DOWN));
+                for (; y > toY; y--) keys.add(new KeyEvent(KeyEvent.UP));
+                keys.add(new KeyEvent(KeyEvent.D));
+            }
+            play(game, keys.toArray(new KeyEvent[0]), "cascade", CASCADE_BUDGET);
+            if (!game.isRunning())
+                throw new IllegalStateException("Opened a mine");
+        }
+    }
+
+    /**
+     * Flags every mine on a beginner board. The last flag wins the game,
+     * which writes the score, so it isn't measured.
+     */
+    private void win() throws IOException {
+        Minesweeper game = newGame(9, 9, 10);
+        List<KeyEvent> keys = new ArrayList<>();
+        int x = 0, y = 0;
+        for (int r = 0; r < 9; r++) {
+            for (int c = 0; c < 9; c++) {
+                if (!game.cells[r][c].isMine) continue;
+                for (; x < c; x++) keys.add(new KeyEvent(KeyEvent.RIGHT));
+                for (; x > c; x--) keys.add(new KeyEvent(KeyEvent.LEFT));
+                for (; y < r; y++) keys.add(new KeyEvent(KeyEvent.DOWN));
+                keys.add(new KeyEvent(KeyEvent.F));
+            }
+        }
+        KeyEvent last = keys.remove(keys.size() - 1);
+        play(game, keys.toArray(new KeyEvent[0]), "flag", FLAG_BUDGET);
+        game.keyPressed(last);
+        synchronized (screen.getLock()) {
+            game.handleInput();
+            game.updateView();
+        }
+        if (!game.isWon())
+            throw new IllegalStateException("Game not won");
+    }
+
+    private void run() throws IOException {
+        findThreads();
+        Measurement calibration = new Measurement("", 0, Thread.currentThread());
+        for (int i = 0; i < 1000; i++) {
+            calibration.begin();
+            calibration.end();
+        }
+        readOverhead = (long) calibration.perOperation();
+
+        for (int pass = 0; pass <= WARMUP_PASSES; pass++) {
+            checking = pass == WARMUP_PASSES;
+            menu();
+            cursorMoves();
+            cascades();
+            win();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!THREADS.isThreadAllocatedMemorySupported())
+            throw new UnsupportedOperationException("Thread allocation counters aren't supported");
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        File scoreFile = File.createTempFile("minesweeper_scores", ".xml");
+        scoreFile.deleteOnExit();
+        AllocationBudget harness = new AllocationBudget(scoreFile);
+        harness.run();
+
+        boolean failed = false;
+        for (Measurement m : harness.measurements) {
+            boolean over = m.overBudget();
+            failed |= over;
+            System.out.printf("%-24s %10.1f bytes/op  budget %6d  %s%n",
+                m.name, m.perOperation(), m.budget, over ? "OVER BUDGET" : "ok");
+        }
+        harness.screen.endwin();
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares a JMH result file (CSV) with the baseline, printing the change in
+ * score of each benchmark, including the gc profiler's results. Run by the
+ * jmh profile after the benchmarks. <br>
+ *
+ * Benchmarks run in every topology are also checked against the same
+ * benchmark on the SQUARE topology, which the others must be as fast as.
+ * One is slower if its whole confidence interval is above SQUARE's, so
+ * noise alone doesn't fail the check. Exits with status 1 if any topology
+ * is slower which was as fast as SQUARE in the baseline. Ones slower in
+ * the baseline too, or not in the baseline, are only reported, so the
+ * check starts failing once a baseline with the topology is recorded.
+ *
+ * @author kaiyu
+ */
+public final class BaselineComparison {
+    private BaselineComparison() {
+    }
+
+    /**
+     * Reads the results, keyed by benchmark name and parameters. Lines
+     * starting with # are comments.
+     *
+     * @param file
+     * @return the score, unit and score error of each benchmark
+     * @throws IOException
+     */
+    static Map<String, String[]> read(Path file) throws IOException {
+        Map<String, String[]> results = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            return results;
+        }
+        List<String> header = null;
+        for (String line : Files.readAllLines(file)) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            List<String> fields = split(line);
+            if (header == null) {
+                header = fields;
+                continue;
+            }
+            StringBuilder key = new StringBuilder(fields.get(0));
+            for (int i = 0; i < header.size() && i < fields.size(); i++) {
+                // Benchmarks without the parameter have no value for it
+                if (header.get(i).startsWith("Param: ") && !fields.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring(7))
+                        .append('=').append(fields.get(i));
+                }
+            }
+            results.put(key.toString(), new String[] {
+                fields.get(header.indexOf("Score")),
+                fields.get(header.indexOf("Unit")),
+                fields.get(header.indexOf("Score Error (99.9%)"))
+            });
+        }
+        return results;
+    }
+
+    /**
+     * Splits a line of JMH's CSV output. Fields are quoted and don't contain
+     * quotes.
+     *
+     * @param line
+     * @return the fields
+     */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        for (String field : line.split(",", -1)) {
+            if (field.length() >= 2 && field.startsWith("\"") && field.endsWith("\"")) {
+                field = field.substring(1, field.length() - 1);
+            }
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    /**
+     * Parses a score or score error. JMH writes NaN for the error when there
+     * are too few samples.
+     */
+    private static double parse(String value) {
+        double d = Double.parseDouble(value);
+        return Double.isNaN(d) ? 0 : d;
+    }
+
+    /**
+     * Checks the time of each benchmark run on a topology other than SQUARE
+     * against the same benchmark on SQUARE, in the results and in the
+     * baseline. The gc profiler's results aren't checked.
+     *
+     * @param baseline
+     * @param results
+     * @return the number of benchmarks slower than on SQUARE which weren't
+     *         in the baseline
+     */
+    static int compareTopologies(Map<String, String[]> baseline, Map<String, String[]> results) {
+        int slower = 0;
+        for (Map.Entry<String, String[]> e : results.entrySet()) {
+            String key = e.getKey();
+            int i = key.indexOf(" topology=");
+            if (i < 0 || key.substring(0, i).contains(":")) continue;
+            int end = key.indexOf(' ', i + 1);
+            String topology = key.substring(i + 10, end < 0 ? key.length() : end);
+            if (topology.equals("SQUARE")) continue;
+            String squareKey = key.replace(" topology=" + topology, " topology=SQUARE");
+            String[] square = results.get(squareKey);
+            if (square == null) continue;
+            String[] result = e.getValue();
+            String status = "ok";
+            if (isSlower(result, square)) {
+                String[] baseResult = baseline.get(key);
+                String[] baseSquare = baseline.get(squareKey);
+                if (baseResult == null || baseSquare == null) {
+                    status = "SLOWER (not in baseline)";
+                } else if (isSlower(baseResult, baseSquare)) {
+                    status = "SLOWER (in baseline too)";
+                } else {
+                    status = "SLOWER";
+                    slower++;
+                }
+            }
+            System.out.printf("%-70s %14s vs SQUARE %14s %-10s %s%n",
+                key, result[0], square[0], result[1], status);
+        }
+        return slower;
+    }
+
+    /**
+     * Returns whether the result's whole confidence interval is above
+     * SQUARE's
+     */
+    private static boolean isSlower(String[] result, String[] square) {
+        double low = parse(result[0]) - parse(result[2]);
+        double squareHigh = parse(square[0]) + parse(square[2]);
+        return low > squareHigh;
+    }
+
+    /**
+     * @param args the baseline file and the result file
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String[]> baseline = read(Paths.get(args[0]));
+        Map<String, String[]> results = read(Paths.get(args[1]));
+        if (baseline.isEmpty()) {
+            System.out.println("No baseline recorded in " + args[0]);
+        } else {
+            compareBaseline(baseline, results);
+        }
+        int slower = compareTopologies(baseline, results);
+        if (slower > 0) {
+            System.out.println("FAIL: " + slower + " benchmarks slower than on SQUARE");
+        }
+        System.exit(slower > 0 ? 1 : 0);
+    }
+
+    /**
+     * Prints the change from the baseline of each result
+     *
+     * @param baseline
+     * @param results
+     */
+    static void compareBaseline(Map<String, String[]> baseline, Map<String, String[]> results) {
+        for (Map.Entry<String, String[]> e : results.entrySet()) {
+            String[] result = e.getValue();
+            String[] base = baseline.get(e.getKey());
+            if (base == null) {
+                // Recorded before the benchmark took a topology, when it
+                // was always SQUARE
+                base = baseline.get(e.getKey().replace(" topology=SQUARE", ""));
+            }
+            if (base == null) {
+                System.out.printf("%-70s %14s %-10s (new)%n", e.getKey(), result[0], result[1]);
+                continue;
+            }
+            double before = Double.parseDouble(base[0]);
+            double after = Double.parseDouble(result[0]);
+            System.out.printf("%-70s %14s -> %14s %-10s %+7.1f%%%n",
+                e.getKey(), base[0], result[0], result[1],
+                before == 0 ? 0 : (after - before) / before * 100);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generating boards: laying out mines and counting adjacent mines, on square
+ * boards with 15% mines, in every topology. BaselineComparison checks the
+ * other topologies are as fast as SQUARE. Boards stop at 1000x1000: making
+ * a 10000x10000 board (100 million cells) while the last one is still on the
+ * heap needs more memory than the machine the baseline is recorded on has.
+ *
+ * @author kaiyu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BoardBenchmark {
+    @Param({"100", "1000"})
+    int size;
+
+    @Param({"SQUARE", "TORUS", "HEX", "KNIGHT"})
+    Topology topology;
+
+    private Minesweeper game;
+    private int mines;
+
+    @Setup
+    public void setUp() {
+        this.mines = Boards.mines(size, size);
+        this.game = Boards.newGame(size, size, mines, topology);
+    }
+
+    /**
+     * Makes every cell, lays out the mines and counts adjacent mines
+     */
+    @Benchmark
+    public void initBoard() {
+        game.initBoard(mines);
+    }
+
+    /**
+     * Counts adjacent mines for every cell of an existing board
+     */
+    @Benchmark
+    public void fillAdjacentMineNumbers() {
+        game.fillAdjacentMineNumbers();
+    }
+}
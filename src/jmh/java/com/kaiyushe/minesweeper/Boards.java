@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import screen.Screen;
+import screen.TerminalInput;
+
+/**
+ * Sets up games for the benchmarks, drawing to nowhere and reading no input
+ *
+ * @author kaiyu
+ */
+final class Boards {
+    private Boards() {
+    }
+
+    /**
+     * Starts a game on a board of the given size, as if it was chosen from
+     * the menu
+     *
+     * @param columns
+     * @param rows
+     * @param mines
+     * @return the game
+     */
+    static Minesweeper newGame(int columns, int rows, int mines) {
+        return newGame(columns, rows, mines, Topology.SQUARE);
+    }
+
+    /**
+     * Starts a game on a board of the given size and topology, as if
+     * --topology was given
+     *
+     * @param columns
+     * @param rows
+     * @param mines
+     * @param topology
+     * @return the game
+     */
+    static Minesweeper newGame(int columns, int rows, int mines, Topology topology) {
+        Screen screen = new Screen(OutputStream.nullOutputStream(), 30, 100);
+        Minesweeper game = new Minesweeper(screen, new TerminalInput(InputStream.nullInputStream()));
+        game.setTopology(topology);
+        game.startGame(columns, rows, mines);
+        return game;
+    }
+
+    /**
+     * Returns the number of mines for a board with about 15% mines, the
+     * density of the expert difficulty
+     *
+     * @param columns
+     * @param rows
+     * @return the number of mines
+     */
+    static int mines(int columns, int rows) {
+        return (int) Math.max(1, (long) columns * rows * 15 / 100);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Moving the cursor: updating the selected cell, and updating the view of
+ * the board (scrolling it to follow the cursor). The cursor moves one cell
+ * right per operation, wrapping onto the next row.
+ *
+ * @author kaiyu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CursorBenchmark {
+    @Param({"100", "1000", "10000"})
+    int size;
+
+    private Minesweeper game;
+    private int x, y;
+
+    @Setup
+    public void setUp() {
+        this.game = Boards.newGame(size, size, Boards.mines(size, size));
+    }
+
+    private void step() {
+        if (++x == size) {
+            x = 0;
+            y = (y + 1) % size;
+        }
+    }
+
+    /**
+     * Moves the cursor, which calls updateSelectedCell()
+     */
+    @Benchmark
+    public void updateSelectedCell() {
+        step();
+        game.moveCursor(x, y);
+    }
+
+    /**
+     * Moves the cursor and scrolls the view of the board to follow it. Cells
+     * are only marked dirty here; drawing them is measured by
+     * ScreenBenchmark.
+     */
+    @Benchmark
+    public void scrollBoard() {
+        step();
+        game.moveCursor(x, y);
+        game.drawBoard(false);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Starts the game headless in a new JVM RUNS times, with --startup-profile
+ * and --input pipe, and checks the median time to the first frame against
+ * the budget. Exits with status 1 if it is over budget. Run by the jmh
+ * profile before the benchmarks. <br>
+ *
+ * The budget is StartupProfile.FIRST_FRAME_BUDGET_MILLIS, unless the system
+ * property minesweeper.firstFrameBudgetMillis sets one for the machine (the
+ * jmh profile sets it from first.frame.budget.millis). It is passed on to
+ * the game, so its report shows the same budget. <br>
+ *
+ * Once the menu has been written, the keys to pick Exit are piped in, and
+ * the time is read from the report the game prints to stderr as it exits.
+ *
+ * @author kaiyu
+ */
+public final class FirstFrameBudget {
+    private static final int RUNS = 5;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    // Down to the last menu item (Exit), then enter
+    private static final byte[] EXIT_KEYS =
+        "\033[B\033[B\033[B\033[B\r".getBytes(StandardCharsets.US_ASCII);
+
+    // The terminal is set up before the menu is drawn, so the keys are
+    // only sent once the last menu item has been written
+    private static final String MENU_TEXT = "Exit";
+
+    private static final Pattern FIRST_FRAME =
+        Pattern.compile("First frame at ([0-9]+[.,][0-9]+) ms");
+
+    /**
+     * Runs the game once and returns when its first frame was written, in
+     * millis from the JVM starting
+     */
+    private static double run(long budget) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(
+            java,
+            "-cp", System.getProperty("java.class.path"),
+            "-D" + StartupProfile.BUDGET_PROPERTY + "=" + budget,
+            Minesweeper.class.getName(),
+            "--input", "pipe",
+            "--startup-profile"
+        );
+        builder.environment().put("LINES", "24");
+        builder.environment().put("COLUMNS", "80");
+        Process game = builder.start();
+
+        CountDownLatch drawn = new CountDownLatch(1);
+        CompletableFuture<Void> stdout = CompletableFuture.runAsync(() -> {
+            byte[] buffer = new byte[8192];
+            StringBuilder output = new StringBuilder();
+            try (InputStream in = game.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (drawn.getCount() > 0) {
+                        output.append(new String(buffer, 0, read, StandardCharsets.ISO_8859_1));
+                        if (output.indexOf(MENU_TEXT) != -1) {
+                            drawn.countDown();
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                // The game has gone, which waitFor() reports
+            }
+        });
+        CompletableFuture<String> stderr = CompletableFuture.supplyAsync(() -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (InputStream in = game.getErrorStream()) {
+                in.transferTo(bytes);
+            } catch (IOException ex) {
+                // As above
+            }
+            return bytes.toString(StandardCharsets.UTF_8);
+        });
+
+        try {
+            if (!drawn.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                throw new IllegalStateException("The menu wasn't drawn in " + TIMEOUT_SECONDS + " s");
+            try (OutputStream in = game.getOutputStream()) {
+                in.write(EXIT_KEYS);
+            }
+            if (!game.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                throw new IllegalStateException("The game didn't exit in " + TIMEOUT_SECONDS + " s");
+        } finally {
+            game.destroyForcibly();
+        }
+        stdout.join();
+        String report = stderr.join();
+        Matcher matcher = FIRST_FRAME.matcher(report);
+        if (game.exitValue() != 0 || !matcher.find())
+            throw new IllegalStateException("No first frame time, the game exited with "
+                + game.exitValue() + ":\n" + report);
+        return Double.parseDouble(matcher.group(1).replace(',', '.'));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long budget = StartupProfile.getFirstFrameBudgetMillis();
+        List<Double> times = new ArrayList<>();
+        for (int i = 0; i < RUNS; i++) {
+            times.add(run(budget));
+        }
+        double[] sorted = times.stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(sorted);
+        double median = sorted[RUNS / 2];
+
+        boolean over = median > budget;
+        System.out.printf("%-24s %10.1f ms  budget %6d  %s%n",
+            "first frame (median)", median, budget, over ? "OVER BUDGET" : "ok");
+        System.out.println("runs: " + times);
+        System.exit(over ? 1 : 0);
+    }
+}
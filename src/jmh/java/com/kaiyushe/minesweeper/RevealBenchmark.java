@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opening a cell on a board with a single mine, so the cascade opens almost
+ * the whole board: the worst case for openCell(), in every topology. The
+ * mine is always in the middle and the top left cell is opened, so every
+ * run opens the same cells. (A mine in a corner would be next to the top
+ * left cell on a torus.) The cascade is run to the end in one go, rather
+ * than in slices between frames. Like BoardBenchmark, boards stop at
+ * 1000x1000, as a new board is made before every reveal.
+ *
+ * @author kaiyu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RevealBenchmark {
+    @Param({"100", "1000"})
+    int size;
+
+    @Param({"SQUARE", "TORUS", "HEX", "KNIGHT"})
+    Topology topology;
+
+    private Minesweeper game;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.game = Boards.newGame(size, size, 1, topology);
+    }
+
+    /**
+     * Makes a new board before each reveal, with the mine in the middle, and
+     * new region counts, since the old ones already count the whole board as
+     * open
+     */
+    @Setup(Level.Invocation)
+    public void newBoard() {
+        game.regionIndex = new RegionIndex(size, size);
+        game.initBoard(0);
+        game.cells[size / 2][size / 2].isMine = true;
+        game.fillAdjacentMineNumbers();
+    }
+
+    @Benchmark
+    public void openCell() {
+        game.openCell(game.new CoordPoint(0, 0));
+        while (!game.revealSome(System.nanoTime() + TimeUnit.SECONDS.toNanos(1))) {
+            // Keep going until the cascade is done
+        }
+    }
+}
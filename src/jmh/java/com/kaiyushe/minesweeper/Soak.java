@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import screen.Histogram;
+import screen.KeyEvent;
+import screen.Screen;
+import screen.TerminalInput;
+
+/**
+ * Plays thousands of games, millions of key presses, with one game and one
+ * screen drawing to nowhere, and reports anything which builds up or slows
+ * down over the run. Exits with status 1 if it finds a leak or a slowdown.
+ * <br>
+ *
+ * Games are played on the three difficulties in turn. Most games are random
+ * key presses until a mine is opened or the game has had MOVES_PER_GAME key
+ * presses. Every WIN_EVERY games the mines are flagged instead, which wins
+ * the game. A frame is drawn and waited for after every key press, and the
+ * finished game is drawn a few more times, as it stays on the screen. <br>
+ *
+ * Every SAMPLE_EVERY games, the heap used after a full GC, the most
+ * components on the screen at the end of a game and the frame times since
+ * the last sample are recorded. The first sample is taken once the JIT has warmed up.
+ *
+ * @author kaiyu
+ */
+public final class Soak {
+    private static final int LINES = 30, COLUMNS = 100;
+    private static final int MOVES_PER_GAME = 1000;
+    private static final int WIN_EVERY = 10;
+    private static final int SAMPLE_EVERY = 200;
+    private static final int END_FRAMES = 3;
+
+    /**
+     * Heap growth allowed over the run, after GC, and per game
+     */
+    private static final long HEAP_GROWTH_BYTES = 512 * 1024;
+    private static final long HEAP_GROWTH_PER_GAME = 64;
+
+    /**
+     * The slowest sample's moves per second, as a fraction of the fastest,
+     * below which throughput is taken to have degraded
+     */
+    private static final double MIN_THROUGHPUT = 0.5;
+
+    /**
+     * The last sample's 99th percentile frame time, as a multiple of the
+     * lowest, above which frame time is taken to have degraded. The maximum
+     * isn't checked, since a single GC pause sets it.
+     */
+    private static final double MAX_FRAME_P99_GROWTH = 2.0;
+
+    private static final Difficulty[] DIFFICULTIES = {
+        Difficulty.BEGINNER, Difficulty.INTERMEDIATE, Difficulty.EXPERT
+    };
+    private static final int[] ARROWS = {KeyEvent.UP, KeyEvent.DOWN, KeyEvent.LEFT, KeyEvent.RIGHT};
+
+    /**
+     * The state at the end of a number of games
+     */
+    private static final class Sample {
+        long games, moves;
+        long heapBytes;
+        int components;
+        double movesPerSecond;
+        long frameP50, frameP99, frameMax;
+    }
+
+    private final Screen screen;
+    private final Minesweeper game;
+    private final Random random = new Random(1);
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final Histogram frameTime = new Histogram();
+
+    private long games, moves;
+    // Most components on the screen at the end of a game since the last
+    // sample
+    private int maxComponents;
+
+    private Soak(File scoreFile) {
+        this.screen = new Screen(OutputStream.nullOutputStream(), LINES, COLUMNS);
+        this.game = new Minesweeper(screen, new TerminalInput(InputStream.nullInputStream()));
+        game.setScoreFile(scoreFile.getPath());
+    }
+
+    /**
+     * Presses the key, then updates the game and draws a frame
+     */
+    private void press(int keyCode) throws IOException {
+        game.keyPressed(new KeyEvent(keyCode));
+        synchronized (screen.getLock()) {
+            game.handleInput();
+            while (!game.revealSome(Long.MAX_VALUE)) {
+                // Cascades are done in one go
+            }
+            game.continueReveal();
+            game.updateView();
+        }
+        drawFrame();
+        moves++;
+    }
+
+    private void drawFrame() throws IOException {
+        long start = System.nanoTime();
+        screen.refresh();
+        screen.flush();
+        frameTime.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Plays one game, by pressing random keys, or by flagging every mine if
+     * win is true
+     */
+    private void play(boolean win) throws IOException {
+        Difficulty difficulty = DIFFICULTIES[(int) (games % DIFFICULTIES.length)];
+        game.startGame(difficulty.sizeX, difficulty.sizeY, difficulty.numMines);
+        if (win) {
+            int x = 0, y = 0;
+            for (int r = 0; r < difficulty.sizeY; r++) {
+                for (int c = 0; c < difficulty.sizeX; c++) {
+                    if (!game.cells[r][c].isMine) continue;
+                    for (; x < c; x++) press(KeyEvent.RIGHT);
+                    for (; x > c; x--) press(KeyEvent.LEFT);
+                    for (; y < r; y++) press(KeyEvent.DOWN);
+                    press(KeyEvent.F);
+                }
+            }
+            if (!game.isWon())
+                throw new IllegalStateException("Game not won");
+        } else {
+            for (int i = 0; i < MOVES_PER_GAME && game.isRunning(); i++) {
+                int n = random.nextInt(100);
+                press(n < 5 ? KeyEvent.D : n < 10 ? KeyEvent.F : ARROWS[n % ARROWS.length]);
+            }
+        }
+        // The finished game stays on the screen
+        for (int i = 0; i < END_FRAMES; i++) {
+            synchronized (screen.getLock()) {
+                game.updateView();
+            }
+            drawFrame();
+        }
+        maxComponents = Math.max(maxComponents, screen.getComponents().size());
+        games++;
+    }
+
+    private Sample sample(long startNanos, long startMoves) {
+        Sample s = new Sample();
+        s.games = games;
+        s.moves = moves;
+        s.movesPerSecond = (moves - startMoves) / ((System.nanoTime() - startNanos) / 1e9);
+        s.frameP50 = frameTime.getValueAtPercentile(50);
+        s.frameP99 = frameTime.getValueAtPercentile(99);
+        s.frameMax = frameTime.getMax();
+        s.components = maxComponents;
+        maxComponents = 0;
+        System.gc();
+        s.heapBytes = memory.getHeapMemoryUsage().getUsed();
+        frameTime.reset();
+        return s;
+    }
+
+    /**
+     * Plays until both at least minMoves key presses and minGames games have
+     * been played
+     */
+    private List<Sample> run(long minMoves, long minGames) throws IOException {
+        // Warm up, so the first sample isn't slowed down by the JIT
+        for (int i = 0; i < SAMPLE_EVERY; i++) {
+            play(i % WIN_EVERY == 0);
+        }
+        List<Sample> samples = new ArrayList<>();
+        long startNanos = System.nanoTime(), startMoves = moves;
+        samples.add(sample(startNanos, startMoves));
+        games = moves = 0;
+        while (moves < minMoves || games < minGames || samples.size() < 3) {
+            startNanos = System.nanoTime();
+            startMoves = moves;
+            for (int i = 0; i < SAMPLE_EVERY; i++) {
+                play(games % WIN_EVERY == 0);
+            }
+            Sample s = sample(startNanos, startMoves);
+            samples.add(s);
+            System.out.printf("%8d %10d %12.0f %10.1f %10.1f %10.1f %12d %10d%n",
+                s.games, s.moves, s.movesPerSecond,
+                s.frameP50 / 1e3, s.frameP99 / 1e3, s.frameMax / 1e3,
+                s.heapBytes / 1024, s.components);
+        }
+        return samples;
+    }
+
+    /**
+     * Checks the samples, ignoring the first (which is from the warm up
+     * apart from the heap and components)
+     *
+     * @return the problems found
+     */
+    private static List<String> check(List<Sample> samples) {
+        List<String> problems = new ArrayList<>();
+        Sample first = samples.get(0), last = samples.get(samples.size() - 1);
+        if (last.components != first.components) {
+            problems.add(String.format("components on the screen went from %d to %d",
+                first.components, last.components));
+        }
+        long heapGrowth = last.heapBytes - first.heapBytes;
+        if (heapGrowth > HEAP_GROWTH_BYTES && heapGrowth > HEAP_GROWTH_PER_GAME * last.games) {
+            problems.add(String.format("heap after GC grew by %d KB, %d bytes per game",
+                heapGrowth / 1024, heapGrowth / last.games));
+        }
+        double fastest = 0, slowest = Double.MAX_VALUE;
+        for (Sample s : samples.subList(1, samples.size())) {
+            fastest = Math.max(fastest, s.movesPerSecond);
+            slowest = Math.min(slowest, s.movesPerSecond);
+        }
+        if (slowest < fastest * MIN_THROUGHPUT) {
+            problems.add(String.format("throughput fell from %.0f to %.0f moves per second",
+                fastest, slowest));
+        }
+        long lowestP99 = Long.MAX_VALUE;
+        for (Sample s : samples.subList(1, samples.size())) {
+            lowestP99 = Math.min(lowestP99, s.frameP99);
+        }
+        if (last.frameP99 > lowestP99 * MAX_FRAME_P99_GROWTH) {
+            problems.add(String.format("99th percentile frame time rose from %.1f to %.1f us",
+                lowestP99 / 1e3, last.frameP99 / 1e3));
+        }
+        return problems;
+    }
+
+    /**
+     * @param args the minimum number of key presses and games, 2000000 and
+     *             5000 if not given
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        long minMoves = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+        long minGames = args.length > 1 ? Long.parseLong(args[1]) : 5_000;
+
+        File scoreFile = File.createTempFile("minesweeper_scores", ".xml");
+        scoreFile.deleteOnExit();
+        Soak soak = new Soak(scoreFile);
+        System.out.printf("%8s %10s %12s %10s %10s %10s %12s %10s%n",
+            "games", "moves", "moves/s", "p50 us", "p99 us", "max us", "heap KB", "components");
+        List<Sample> samples = soak.run(minMoves, minGames);
+        soak.screen.endwin();
+
+        List<String> problems = check(samples);
+        for (String problem : problems) {
+            System.out.println("FAIL: " + problem);
+        }
+        if (problems.isEmpty()) {
+            System.out.println("No leaks or slowdown found");
+        }
+        System.exit(problems.isEmpty() ? 0 : 1);
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that what Screen and FrameEncoder write draws the right screen, by
+ * feeding it through a VirtualTerminal and comparing every cell with the
+ * frame drawn. Exits with status 1 if any check fails. Run by the jmh profile
+ * before the benchmarks. <br>
+ *
+ * The encoder is given random frames with a few, many or all cells changed,
+ * so every kind of cursor move (absolute, relative, carriage return and
+ * writing over unchanged cells) is used, with characters typed between
+ * frames as a terminal would echo them. Full redraws, by the same encoder
+ * and by a new one as a sink which doesn't know what it shows would make,
+ * are written to terminals already showing something else. Through Screen, the
+ * terminal, a sink added late and a sink which falls behind and skips to the
+ * newest frame must all end up showing the last frame.
+ *
+ * @author kaiyu
+ */
+public final class RenderCheck {
+    private static final int LINES = 24, COLUMNS = 80;
+    private static final int FRAMES = 2000;
+
+    // How long a sink on another thread is given to catch up
+    private static final long CATCH_UP_MILLIS = 5000;
+
+    private static final char[] CHARACTERS = {
+        ' ', ' ', 'a', 'b', 'x', '1', '#', '*', 'é', '█', '░', '⚑',
+        // Not printable, so drawn as spaces
+        '\u0007', '\u001b'
+    };
+
+    private static final SGRSequence[] ATTRS = {
+        SGRSequence.EMPTY,
+        SGRSequence.EMPTY,
+        SGRSequence.of(SGR.FGRED),
+        SGRSequence.of(SGR.BOLD, SGR.FGBLUE),
+        SGRSequence.of(SGR.UNDERLINE),
+        SGRSequence.of(SGR.BGWHITE, SGR.FGBLACK)
+    };
+
+    private final Random random = new Random(1);
+    private final List<String> failures = new ArrayList<>();
+
+    private RenderCheck() {
+    }
+
+    private void check(boolean passed, String what) {
+        if (!passed) {
+            failures.add(what);
+        }
+    }
+
+    private DisplayCharacter randomCell() {
+        return new DisplayCharacter(
+            CHARACTERS[random.nextInt(CHARACTERS.length)],
+            ATTRS[random.nextInt(ATTRS.length)]
+        );
+    }
+
+    private static DisplayCharacter[][] blankFrame() {
+        DisplayCharacter[][] frame = new DisplayCharacter[LINES][COLUMNS];
+        DisplayCharacter blank = new DisplayCharacter(' ', SGRSequence.EMPTY);
+        for (DisplayCharacter[] row : frame) {
+            Arrays.fill(row, blank);
+        }
+        return frame;
+    }
+
+    /**
+     * Changes the frame the way the game does: a few scattered cells, a run
+     * along a line, a column, the last column (where the cursor wraps), or
+     * everything
+     */
+    private void change(DisplayCharacter[][] frame) {
+        switch (random.nextInt(6)) {
+            case 0:
+                for (int i = 1 + random.nextInt(10); i > 0; i--) {
+                    frame[random.nextInt(LINES)][random.nextInt(COLUMNS)] = randomCell();
+                }
+                break;
+            case 1: {
+                int r = random.nextInt(LINES), c = random.nextInt(COLUMNS);
+                for (int n = random.nextInt(COLUMNS - c); n >= 0; n--) {
+                    // Some cells of the run are left as they were
+                    if (random.nextInt(4) > 0) {
+                        frame[r][c + n] = randomCell();
+                    }
+                }
+                break;
+            }
+            case 2: {
+                int c = random.nextInt(COLUMNS);
+                for (int r = random.nextInt(LINES); r < LINES; r++) {
+                    frame[r][c] = randomCell();
+                }
+                break;
+            }
+            case 3:
+                for (int r = 0; r < LINES; r++) {
+                    if (random.nextBoolean()) {
+                        frame[r][COLUMNS - 1] = randomCell();
+                    }
+                }
+                break;
+            case 4:
+                for (DisplayCharacter[] row : frame) {
+                    for (int c = 0; c < COLUMNS; c++) {
+                        row[c] = randomCell();
+                    }
+                }
+                break;
+            default:
+                // Nothing changed
+                break;
+        }
+    }
+
+    /**
+     * Types a few characters on the line the cursor is parked on, as a
+     * terminal echoing key presses would
+     */
+    private void echo(VirtualTerminal terminal) {
+        for (int i = random.nextInt(4); i > 0; i--) {
+            terminal.write('a' + random.nextInt(26));
+        }
+    }
+
+    /**
+     * Fills the terminal with something other than the frame
+     */
+    private void scribble(VirtualTerminal terminal) {
+        for (int i = 0; i < LINES * COLUMNS / 2; i++) {
+            terminal.write(' ' + random.nextInt(95));
+        }
+    }
+
+    /**
+     * Checks the terminal shows the frame. If anything was written for it,
+     * the cursor has to be parked at the start of the erased line below it.
+     * A frame with no changes writes nothing, so what was echoed is left.
+     */
+    private void checkShows(VirtualTerminal terminal, DisplayCharacter[][] frame, boolean written, String what) {
+        check(terminal.shows(frame), what + ": frame differs");
+        if (written) {
+            check(terminal.getCursorLine() == LINES && terminal.getCursorColumn() == 0,
+                what + ": cursor not parked below the frame");
+            check(terminal.getLine(LINES).trim().isEmpty(), what + ": line below the frame not erased");
+        }
+    }
+
+    private static void write(OutputBuffer buffer, VirtualTerminal terminal) {
+        byte[] bytes = new byte[buffer.length()];
+        buffer.copyTo(bytes);
+        terminal.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Encodes a series of frames as changes, checking each one is drawn
+     * right, and that a full redraw at any point, by this encoder or a new
+     * one, draws the same on a terminal which shows something else
+     */
+    private void encoder() {
+        FrameEncoder encoder = new FrameEncoder(LINES, COLUMNS);
+        OutputBuffer buffer = new OutputBuffer(LINES * COLUMNS);
+        VirtualTerminal terminal = new VirtualTerminal(LINES + 1, COLUMNS);
+        DisplayCharacter[][] frame = blankFrame();
+
+        for (int i = 0; i < FRAMES; i++) {
+            change(frame);
+            buffer.reset();
+            encoder.encode(frame, buffer);
+            write(buffer, terminal);
+            checkShows(terminal, frame, buffer.length() > 0, "diff frame " + i);
+            echo(terminal);
+
+            if (i % 100 == 99) {
+                VirtualTerminal other = new VirtualTerminal(LINES + 1, COLUMNS);
+                scribble(other);
+                OutputBuffer redraw = new OutputBuffer(LINES * COLUMNS);
+                new FrameEncoder(LINES, COLUMNS).encode(frame, redraw);
+                write(redraw, other);
+                checkShows(other, frame, true, "new encoder's redraw after frame " + i);
+            }
+            if (i % 250 == 249) {
+                // Something else was written, so the next frame is redrawn
+                // in full
+                scribble(terminal);
+                encoder.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Draws random components through a Screen, with a sink added part way
+     * through and a sink which is held up until it has missed more frames
+     * than the writer keeps
+     */
+    private void screen() throws IOException, InterruptedException {
+        VirtualTerminal terminal = new VirtualTerminal(LINES + 1, COLUMNS);
+        Screen screen = new Screen(terminal, LINES, COLUMNS);
+        screen.initscr();
+
+        List<CharArrayComponent> components = new ArrayList<>();
+        VirtualTerminal late = new VirtualTerminal(LINES + 1, COLUMNS);
+        VirtualTerminal behind = new VirtualTerminal(LINES + 1, COLUMNS);
+        Gate gate = new Gate(behind);
+        FrameSink lateSink = null, behindSink = null;
+
+        for (int i = 0; i < FRAMES; i++) {
+            synchronized (screen.getLock()) {
+                changeComponents(screen, components);
+            }
+            if (i % 300 == 299) {
+                screen.clrscr();
+            }
+            long bytes = terminal.getBytesReceived();
+            screen.refresh();
+            screen.flush();
+            checkShows(terminal, screen.render(), terminal.getBytesReceived() > bytes, "screen frame " + i);
+            echo(terminal);
+
+            if (i == FRAMES / 4) {
+                lateSink = screen.getWriter().addSink("late", late);
+            } else if (i == FRAMES / 2) {
+                behindSink = screen.getWriter().addSink("behind", gate);
+            } else if (i == FRAMES / 2 + 3 * TerminalWriter.HISTORY) {
+                gate.open();
+            }
+        }
+
+        DisplayCharacter[][] last = screen.render();
+        check(caughtUp(late, last), "late sink doesn't show the last frame");
+        check(caughtUp(behind, last), "sink which fell behind doesn't show the last frame");
+        check(lateSink.getKeyframesWritten() > 0, "late sink didn't start from a keyframe");
+        // It was held up for 3 * HISTORY frames, nearly all of which it
+        // should skip rather than write
+        check(behindSink.getFramesSkipped() >= 3 * TerminalWriter.HISTORY / 2,
+            "sink which fell behind didn't skip to the newest frame");
+        screen.endwin();
+    }
+
+    /**
+     * Adds, removes, moves, restacks or changes a component
+     */
+    private void changeComponents(Screen screen, List<CharArrayComponent> components) {
+        int action = components.isEmpty() ? 0 : random.nextInt(6);
+        if (action == 0 && components.size() < 8) {
+            int sizeX = 1 + random.nextInt(COLUMNS / 2), sizeY = 1 + random.nextInt(LINES / 2);
+            CharArrayComponent c = new CharArrayComponent(
+                1 + random.nextInt(COLUMNS - sizeX), 1 + random.nextInt(LINES - sizeY),
+                sizeX, sizeY, random.nextInt(3), new char[sizeY][sizeX]
+            );
+            fill(c);
+            screen.addComponent(c);
+            components.add(c);
+            return;
+        }
+        CharArrayComponent c = components.get(random.nextInt(components.size()));
+        switch (action) {
+            case 1:
+                screen.removeComponent(c);
+                components.remove(c);
+                break;
+            case 2:
+                c.setStartX(1 + random.nextInt(COLUMNS - c.getSizeX()));
+                c.setStartY(1 + random.nextInt(LINES - c.getSizeY()));
+                break;
+            case 3:
+                c.setLayer(random.nextInt(3));
+                break;
+            default:
+                c.array[random.nextInt(c.getSizeY())][random.nextInt(c.getSizeX())] =
+                    CHARACTERS[random.nextInt(CHARACTERS.length)];
+                c.markDirty();
+                break;
+        }
+    }
+
+    private void fill(CharArrayComponent c) {
+        for (int r = 0; r < c.getSizeY(); r++) {
+            for (int col = 0; col < c.getSizeX(); col++) {
+                c.array[r][col] = CHARACTERS[random.nextInt(CHARACTERS.length)];
+                if (random.nextInt(4) == 0) {
+                    c.addDisplayAttr(SGR.FGRED, r, col);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a sink on another thread to draw the frame
+     */
+    private static boolean caughtUp(VirtualTerminal terminal, DisplayCharacter[][] frame) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CATCH_UP_MILLIS;
+        while (!terminal.shows(frame)) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Holds up writes to the terminal until opened, like a slow connection
+     */
+    private static final class Gate extends OutputStream {
+        private final VirtualTerminal terminal;
+        private boolean open;
+
+        Gate(VirtualTerminal terminal) {
+            this.terminal = terminal;
+        }
+
+        synchronized void open() {
+            open = true;
+            notifyAll();
+        }
+
+        private synchronized void await() throws IOException {
+            try {
+                while (!open) {
+                    wait();
+                }
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            await();
+            terminal.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            await();
+            terminal.write(b, off, len);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        RenderCheck check = new RenderCheck();
+        check.encoder();
+        check.screen();
+        for (String failure : check.failures) {
+            System.out.println("FAILED: " + failure);
+        }
+        System.out.println(check.failures.isEmpty() ? "All frames drawn correctly"
+            : check.failures.size() + " checks failed");
+        System.exit(check.failures.isEmpty() ? 0 : 1);
+    }
+}
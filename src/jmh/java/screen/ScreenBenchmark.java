@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drawing a 50x200 screen showing a viewport into a square grid, as the
+ * game does with the board. Each operation changes one cell and scrolls the
+ * viewport to it (like moving the cursor), then draws.
+ *
+ * @author kaiyu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScreenBenchmark {
+    private static final int LINES = 50, COLUMNS = 200;
+
+    /**
+     * A grid whose cells all change when version changes. Only cells
+     * marked dirty are read again, like the board.
+     */
+    static final class Grid implements CellGrid {
+        private final int size;
+        private final DisplayCharacter[] characters = new DisplayCharacter[10];
+        int version;
+
+        Grid(int size) {
+            this.size = size;
+            for (int i = 0; i < characters.length; i++) {
+                characters[i] = new DisplayCharacter(
+                    (char) ('0' + i),
+                    SGRSequence.of(SGR.BGWHITE, i % 2 == 0 ? SGR.FGBLUE : null)
+                );
+            }
+        }
+
+        @Override
+        public int getRows() {
+            return size;
+        }
+
+        @Override
+        public int getColumns() {
+            return size;
+        }
+
+        @Override
+        public DisplayCharacter getCell(int row, int column) {
+            return characters[(row + column + version) % characters.length];
+        }
+    }
+
+    @Param({"100", "1000", "10000"})
+    int size;
+
+    private Screen screen;
+    private Grid grid;
+    private ViewportComponent view;
+    private int row, column;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.screen = new Screen(OutputStream.nullOutputStream(), LINES, COLUMNS);
+        this.grid = new Grid(size);
+        this.view = new ViewportComponent(
+            1, 1, Math.min(size, COLUMNS - 2), Math.min(size, LINES - 2), 1, grid
+        );
+        screen.addComponent(view);
+        screen.refresh();
+        screen.flush();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        screen.endwin();
+    }
+
+    private void step() {
+        if (++column == size) {
+            column = 0;
+            row = (row + 1) % size;
+        }
+        grid.version++;
+        view.markCellDirty(row, column);
+        view.scrollTo(row, column);
+    }
+
+    /**
+     * Renders the changed components and composites the frame
+     *
+     * @return the frame
+     */
+    @Benchmark
+    public DisplayCharacter[][] render() {
+        step();
+        return screen.render();
+    }
+
+    /**
+     * Draws a frame and waits for it to be encoded and written
+     *
+     * @throws IOException
+     */
+    @Benchmark
+    public void refresh() throws IOException {
+        step();
+        screen.refresh();
+        screen.flush();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import screen.Histogram;
+import screen.LatencyStats;
+import screen.Screen;
+import screen.TerminalWriter;
+
+/**
+ * The GameMetricsMBean of one game. Reads the game's and screen's counters
+ * when asked, so nothing is done between reads.
+ *
+ * @author kaiyu
+ */
+public final class GameMetrics implements GameMetricsMBean {
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final Minesweeper game;
+    private final Screen screen;
+
+    // The name registered, or null. Guarded by this.
+    private ObjectName name;
+    // Set by unregister(), after which the metrics aren't registered again
+    private boolean closed;
+
+    GameMetrics(Minesweeper game, Screen screen) {
+        this.game = game;
+        this.screen = screen;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. Loading JMX
+     * takes a while, so call this after the first frame has been drawn.
+     *
+     * @return the name registered, or null if unregister() was called first
+     * @throws JMException if the metrics can't be registered
+     */
+    synchronized ObjectName register() throws JMException {
+        if (closed || name != null) return name;
+        ObjectName newName = new ObjectName(
+            "com.kaiyushe.minesweeper:type=Game,name=game-" + nextId.getAndIncrement()
+        );
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        this.name = newName;
+        return newName;
+    }
+
+    /**
+     * Removes the metrics from the MBean server, so a game which has ended
+     * doesn't stay registered. If register() hasn't run yet, it won't
+     * register them.
+     */
+    synchronized void unregister() {
+        this.closed = true;
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException ex) {
+            // Already unregistered
+        }
+        this.name = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return game.isRunning();
+    }
+
+    @Override
+    public int getActiveGames() {
+        return Minesweeper.getActiveGames();
+    }
+
+    @Override
+    public long getMovesMade() {
+        return game.getMovesMade();
+    }
+
+    @Override
+    public double getMovesPerSecond() {
+        return game.getMoveRate().getRate();
+    }
+
+    @Override
+    public long getFramesRendered() {
+        return screen.getFramesRendered();
+    }
+
+    @Override
+    public long getFramesEncoded() {
+        return screen.getWriter().getFramesEncoded();
+    }
+
+    @Override
+    public long getFramesDropped() {
+        return screen.getWriter().getFramesDropped();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return screen.getWriter().getBytesWritten();
+    }
+
+    @Override
+    public double getMeanCellsChangedPerFrame() {
+        TerminalWriter writer = screen.getWriter();
+        long frames = writer.getFramesEncoded();
+        return frames == 0 ? 0 : (double) writer.getCellsEncoded() / frames;
+    }
+
+    @Override
+    public long getBoardFootprintBytes() {
+        return game.getBoardFootprintBytes();
+    }
+
+    @Override
+    public long getScreenFootprintBytes() {
+        return screen.getFootprintBytes();
+    }
+
+    @Override
+    public long getScoreWrites() {
+        return game.getScoreWriteLatency().getCount();
+    }
+
+    @Override
+    public double getScoreWriteMeanMillis() {
+        return game.getScoreWriteLatency().getMean() / 1e6;
+    }
+
+    @Override
+    public double getScoreWriteMaxMillis() {
+        return game.getScoreWriteLatency().getMax() / 1e6;
+    }
+
+    @Override
+    public double getEndToEndP99Millis() {
+        Histogram endToEnd = screen.getLatency().get(LatencyStats.END_TO_END);
+        return endToEnd.getValueAtPercentile(99) / 1e6;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+/**
+ * Live metrics of a running game, for JMX tools such as jconsole. Every
+ * game in the JVM is registered as com.kaiyushe.minesweeper:type=Game,name=...
+ *
+ * @author kaiyu
+ */
+public interface GameMetricsMBean {
+    /**
+     * @return true while a game is being played (not the menu or game over)
+     */
+    boolean isRunning();
+
+    /**
+     * @return the number of games being played in this JVM
+     */
+    int getActiveGames();
+
+    long getMovesMade();
+
+    /**
+     * @return moves (cursor moves, opens and flags) per second over the last
+     *         10 seconds
+     */
+    double getMovesPerSecond();
+
+    long getFramesRendered();
+
+    long getFramesEncoded();
+
+    long getFramesDropped();
+
+    long getBytesWritten();
+
+    /**
+     * @return the mean number of cells written to the terminal per frame
+     */
+    double getMeanCellsChangedPerFrame();
+
+    /**
+     * @return the estimated memory used by the board, in bytes
+     */
+    long getBoardFootprintBytes();
+
+    /**
+     * @return the estimated memory used by the screen, in bytes
+     */
+    long getScreenFootprintBytes();
+
+    long getScoreWrites();
+
+    double getScoreWriteMeanMillis();
+
+    double getScoreWriteMaxMillis();
+
+    /**
+     * @return the 99th percentile of key press to terminal flush latency
+     */
+    double getEndToEndP99Millis();
+}
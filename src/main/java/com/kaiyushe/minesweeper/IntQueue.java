@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.util.NoSuchElementException;
+
+/**
+ * First in first out queue of ints, stored in a ring buffer which grows as
+ * needed. Used instead of a Queue&lt;Integer&gt; where millions of elements
+ * can pass through, so no element is boxed.
+ *
+ * @author kaiyu
+ */
+class IntQueue {
+    private int[] elements;
+
+    // Index of the first element, and number of elements
+    private int head, size;
+
+    IntQueue() {
+        this.elements = new int[64];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(int e) {
+        if (size == elements.length) {
+            // Unwrap into a buffer twice the size
+            int[] grown = new int[elements.length * 2];
+            int firstPart = elements.length - head;
+            System.arraycopy(elements, head, grown, 0, firstPart);
+            System.arraycopy(elements, 0, grown, firstPart, head);
+            this.elements = grown;
+            this.head = 0;
+        }
+        elements[(head + size) & (elements.length - 1)] = e;
+        size++;
+    }
+
+    int poll() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        int e = elements[head];
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return e;
+    }
+
+    void clear() {
+        this.head = 0;
+        this.size = 0;
+    }
+}
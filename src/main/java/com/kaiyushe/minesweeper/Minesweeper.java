@@ -31,14 +31,19 @@ package com.kaiyushe.minesweeper;
  *
  */
 
-import com.github.kwhat.jnativehook.GlobalScreen;
-import com.github.kwhat.jnativehook.NativeHookException;
-import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
-import com.github.kwhat.jnativehook.keyboard.NativeKeyListener;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import java.util.concurrent.locks.LockSupport;
+import jdk.jfr.FlightRecorder;
 import java.time.ZonedDateTime;
 
 // For score file writing/reading
@@ -51,6 +56,8 @@ import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
 import java.io.FileWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -64,9 +71,17 @@ import org.xml.sax.SAXException;
 
 import screen.*;
 
-public class Minesweeper implements NativeKeyListener {
+public class Minesweeper implements KeyListener {
     // Size of board
     private int sizeX, sizeY;
+    
+    /**
+     * Most cells a board can have. Cells are queued for revealing by their
+     * index (row * sizeX + column) as an int, and every cell is an object of
+     * around 28 bytes, so a board this size already needs about 30 GB of
+     * heap.
+     */
+    static final long MAX_BOARD_CELLS = 1L << 30;
 
     /**
      * The current position of the cursor in relation to the board
@@ -76,9 +91,14 @@ public class Minesweeper implements NativeKeyListener {
 
     /**
      * Used by multiple methods to determine how to handle input (such as
-     * key presses).
+     * key presses). Read by the input thread, so volatile.
+     */
+    private volatile boolean isRunning;
+    
+    /**
+     * Number of games being played in this JVM, for the metrics
      */
-    private boolean isRunning;
+    private static final AtomicInteger activeGames = new AtomicInteger();
     
     /**
      * Used to handle game end.
@@ -88,12 +108,24 @@ public class Minesweeper implements NativeKeyListener {
     /**
      * 2D array representing the board cells
      */
-    private Cell[][] cells;
+    Cell[][] cells;
 
     /**
      * Difficulty played
      */
     private Difficulty difficulty;
+    
+    /**
+     * Number of mines on the board. Taken from difficulty, or the custom
+     * board size if one was set.
+     */
+    private int numMines;
+    
+    /**
+     * Custom board size set with setBoardSize(). When set (customSizeX > 0),
+     * the difficulty menu is skipped.
+     */
+    private int customSizeX, customSizeY, customNumMines;
 
     /**
      * Number of flags placed. Different from number of successful flags
@@ -112,11 +144,145 @@ public class Minesweeper implements NativeKeyListener {
      * LTextComponent component to show the number of flags left
      */
     LTextComponent flagsLeftComponent;
+    
+    /**
+     * The number of flags left flagsLeftComponent shows
+     */
+    private int shownFlagsLeft;
+    
+    /**
+     * Time taken and game won texts, shown when the game ends
+     */
+    private LTextComponent timeTakenComponent, gameWonComponent;
 
     /**
-     * The CharArrayComponent component which draws the board.
+     * Reads the board straight from cells when boardView renders
+     */
+    private BoardGrid boardGrid;
+    
+    /**
+     * Viewport into boardGrid, scrolled to follow the cursor when the board
+     * doesn't fit on the screen.
+     */
+    private ViewportComponent boardView;
+    
+    /**
+     * Counts of open and flagged cells by region, updated as cells are opened
+     * and flagged. Used by the minimap.
+     */
+    RegionIndex regionIndex;
+    
+    /**
+     * Which cells are neighbours, and the neighbours of each cell of the
+     * board
+     */
+    private Topology topology = Topology.SQUARE;
+    private Topology.Neighbours neighbours;
+    
+    // Filled by neighbours.find()
+    private final int[] neighbourRows = new int[Topology.MAX_NEIGHBOURS];
+    private final int[] neighbourColumns = new int[Topology.MAX_NEIGHBOURS];
+    // Columns of the mines in a row away from the edges, for
+    // fillAdjacentMineNumbers()
+    private int[] innerMineColumns = new int[0];
+    
+    /**
+     * Minimap shown to the right of the board when the board doesn't fit on
+     * the screen. null if not shown.
+     */
+    private ViewportComponent minimapView;
+    
+    /**
+     * regionIndex.getChanges() and the board viewport's origin when the
+     * minimap was last marked dirty. The minimap only changes when one of
+     * them does.
+     */
+    private long minimapChanges;
+    private int minimapOriginRow, minimapOriginColumn;
+
+    /**
+     * Coordinates of the cell with isSelected set, so it can be unset without
+     * searching the board
+     */
+    private int selectedX, selectedY;
+    
+    /**
+     * Display character for every cell state, indexed by BoardGrid.stateOf().
+     * Built from Cell.getCellChar() and Cell.getCellDisplayAttr() when the
+     * first game starts, so it isn't built while the menu is shown.
+     */
+    private DisplayCharacter[] cellDisplayTable;
+
+    /**
+     * Key presses waiting for the game loop. The input thread only adds to
+     * this (without blocking) and wakes the game loop, which does everything
+     * else.
+     */
+    private final ConcurrentLinkedQueue<KeyEvent> inputQueue = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * The thread running gameLoop(). Every change to the game is made on it.
+     */
+    private Thread gameLoopThread;
+    
+    /*
+     * Used only by the game loop
+     */
+    
+    /**
+     * Cells (row * sizeX + column) opened by a cascade whose neighbours still
+     * have to be checked. While it isn't empty, a cascade is running.
+     */
+    private final IntQueue revealQueue = new IntQueue();
+    
+    /**
+     * Open and flag key presses made during a cascade. They are done in order
+     * after the cascade.
+     */
+    private final ArrayDeque<PendingAction> pendingActions = new ArrayDeque<>();
+    
+    /**
+     * Flight recorder event for the cell being opened, until its cascade has
+     * finished. null when no cell is being opened.
+     */
+    private RevealEvent revealEvent;
+    
+    // Number of cells opened, counted for revealEvent
+    private int numRevealed;
+    
+    /**
+     * How long the game loop works on a cascade before handling key presses
+     * and drawing again. About one frame.
+     */
+    private static final long REVEAL_SLICE_NANOS = 16_000_000L;
+    
+    /**
+     * Time of the oldest key press handled since the game was last drawn,
+     * or 0. Passed on with the frame for the latency stats.
+     */
+    private long inputNanos;
+    
+    // Latency stages recorded by the game loop
+    private final Histogram inputQueueLatency;
+    private final Histogram updateLatency;
+    
+    /**
+     * File the latency stats are written to on exit and when L is pressed,
+     * or null
      */
-    private CharArrayComponent boardScreen;
+    private String latencyFileName;
+    
+    /*
+     * Metrics, read by GameMetrics
+     */
+    
+    // Cursor moves, opens and flags
+    private volatile long movesMade;
+    private final RateCounter moveRate = new RateCounter();
+    private final Histogram scoreWriteLatency = new Histogram();
+    // Registered by registerMetrics(), null before. Set on the main thread
+    // and unregistered on the game loop, so volatile.
+    private volatile GameMetrics metrics;
 
     /**
      * Time at which the game started in millis
@@ -134,10 +300,37 @@ public class Minesweeper implements NativeKeyListener {
      */
     private ZonedDateTime dateTimeStart;
     
+    /**
+     * Writes scores to the score file, so a slow disk never holds up the game
+     * loop while it holds the screen lock. Shared by every game in the JVM,
+     * so scores are written one at a time in the order games were won.
+     */
+    private static final ExecutorService scoreWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "score-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * The last score write handed to scoreWriter, waited for before exiting.
+     * null if no score has been written.
+     */
+    private CompletableFuture<Void> scoreWrite;
+    
     /**
      * Filename for the XML score file
      */
-    private final String scoreFileName = "minesweeper_scores.xml";
+    private String scoreFileName = "minesweeper_scores.xml";
+    
+    /**
+     * The screen the game is drawn on
+     */
+    private final Screen screen;
+    
+    /**
+     * Where key presses are read from
+     */
+    private final InputSource input;
 
     class CoordPoint {
         final int x, y;
@@ -146,6 +339,33 @@ public class Minesweeper implements NativeKeyListener {
             this.x = x;
             this.y = y;
         }
+
+        // Compared by position, so the set of mine coordinates in
+        // initBoard() never holds the same cell twice
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CoordPoint)) return false;
+            CoordPoint p = (CoordPoint) o;
+            return x == p.x && y == p.y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * y + x;
+        }
+    }
+    
+    /**
+     * An open or flag key press, with the cursor position when it was pressed
+     */
+    class PendingAction {
+        final int keyCode;
+        final CoordPoint coord;
+
+        PendingAction(int keyCode, CoordPoint coord) {
+            this.keyCode = keyCode;
+            this.coord = coord;
+        }
     }
     
     /**
@@ -270,6 +490,80 @@ public class Minesweeper implements NativeKeyListener {
         }
     }
     
+    /**
+     * The board as a CellGrid. Each cell is looked up in cellDisplayTable by
+     * its state, so rendering doesn't build any arrays or attribute lists.
+     */
+    class BoardGrid implements CellGrid {
+        /**
+         * When true, mines are shown. Set at the end of the game.
+         */
+        boolean showMines;
+        
+        @Override
+        public int getRows() {
+            return sizeY;
+        }
+        
+        @Override
+        public int getColumns() {
+            return sizeX;
+        }
+        
+        @Override
+        public DisplayCharacter getCell(int row, int column) {
+            return cellDisplayTable[stateOf(cells[row][column], showMines)];
+        }
+    }
+    
+    /**
+     * Packs everything that changes how a cell is drawn into an index of
+     * cellDisplayTable:<br>
+     * - bits 0-3 : numAdjacentMines + 1<br>
+     * - bit 4 : isOpen<br>
+     * - bit 5 : isFlagged<br>
+     * - bit 6 : isSelected<br>
+     * - bit 7 : isMine, only when mines are shown
+     */
+    static int stateOf(Cell cell, boolean showMines) {
+        return (cell.numAdjacentMines + 1)
+            | (cell.isOpen ? 1 << 4 : 0)
+            | (cell.isFlagged ? 1 << 5 : 0)
+            | (cell.isSelected ? 1 << 6 : 0)
+            | (showMines && cell.isMine ? 1 << 7 : 0);
+    }
+    
+    /**
+     * Builds cellDisplayTable. Every cell has a white background, and the
+     * selected cell (the cursor) is underlined.
+     */
+    private DisplayCharacter[] buildCellDisplayTable() {
+        DisplayCharacter[] table = new DisplayCharacter[1 << 8];
+        for (int state = 0; state < table.length; state++) {
+            int numAdjacent = (state & 0xf) - 1;
+            if (numAdjacent > 8) {
+                continue;
+            }
+            boolean isMine = (state & 1 << 7) != 0;
+            Cell cell = new Cell(
+                isMine,
+                (state & 1 << 4) != 0,
+                (state & 1 << 5) != 0,
+                (state & 1 << 6) != 0,
+                (byte) numAdjacent
+            );
+            table[state] = new DisplayCharacter(
+                cell.getCellChar(isMine),
+                SGRSequence.of(
+                    SGR.BGWHITE,
+                    cell.getCellDisplayAttr(),
+                    cell.isSelected ? SGR.UNDERLINE : null
+                )
+            );
+        }
+        return table;
+    }
+    
     private void printAdjacents() {
         for (Cell[] cr : cells) {
             for (Cell c : cr) {
@@ -279,19 +573,27 @@ public class Minesweeper implements NativeKeyListener {
         }
     }
 
-    public Minesweeper() {
+    public Minesweeper(Screen screen, InputSource input) {
+        this.screen = screen;
+        this.input = input;
+        this.inputQueueLatency = screen.getLatency().get(LatencyStats.INPUT_QUEUE);
+        this.updateLatency = screen.getLatency().get(LatencyStats.UPDATE);
         this.cursorX = 0;
         this.cursorY = 0;
     }
     
     private void exitGame() {
-        try {
-            GlobalScreen.unregisterNativeHook();
-        } catch (NativeHookException ex) {
-            System.out.println("Unable to unregister native hook");
+        input.close();
+        GameMetrics registered = metrics;
+        if (registered != null) {
+            registered.unregister();
+        }
+        // Don't exit before the score is in the file
+        if (scoreWrite != null) {
+            scoreWrite.join();
         }
         try {
-            Screen.clrscr();
+            screen.endwin();
         } catch (IOException ex) {
             
         }
@@ -299,93 +601,211 @@ public class Minesweeper implements NativeKeyListener {
         System.exit(0);
     }
 
+    /**
+     * Queues the key press for the game loop and returns. Nothing here
+     * blocks, so the input thread is never held up.
+     * 
+     * @param e 
+     */
     @Override
-    public void nativeKeyPressed(NativeKeyEvent e) {
-        // Immediately exit if user pressed "q"
-        if (e.getKeyCode() == NativeKeyEvent.VC_Q) {
-            exitGame();
+    public void keyPressed(KeyEvent e) {
+        // Quit is handled whenever it's pressed. Anything else only while
+        // the game is running (not during the menu).
+        if (e.getKeyCode() == KeyEvent.Q || isRunning) {
+            inputQueue.offer(e);
+            LockSupport.unpark(gameLoopThread);
         }
-
-        if (isRunning) {
-            switch (e.getKeyCode()) {
+    }
+    
+    /**
+     * Starts the game loop thread
+     */
+    private void startGameLoop() {
+        this.gameLoopThread = new Thread(this::gameLoop, "game-loop");
+        gameLoopThread.start();
+    }
+    
+    /**
+     * Runs on the game loop thread. Each time round, every queued key press
+     * is handled, a slice of any running cascade is done, and the game is
+     * drawn once. Waits (without spinning) when there is nothing to do.
+     */
+    private void gameLoop() {
+        while (true) {
+            if (inputQueue.isEmpty() && revealQueue.isEmpty() && pendingActions.isEmpty()) {
+                // Woken by keyPressed(). May wake early, which is fine.
+                LockSupport.park(this);
+                continue;
+            }
+            
+            boolean wasRunning = isRunning;
+            boolean quit;
+            boolean hadInput = !inputQueue.isEmpty();
+            long start = System.nanoTime();
+            // Hold the screen lock while changing the game, so a snapshot
+            // never has a half updated board
+            synchronized (screen.getLock()) {
+                quit = handleInput();
+                if (wasRunning && !quit) {
+                    continueReveal();
+                    drawGame();
+                }
+            }
+            if (hadInput) {
+                updateLatency.record(System.nanoTime() - start);
+            }
+            
+            if (quit) {
+                exitGame();
+            }
+            if (wasRunning) {
+                exitIfLost();
+            }
+        }
+    }
+    
+    /**
+     * Handles every queued key press. Runs of arrow key presses (e.g. from
+     * auto repeat) are coalesced: the cursor is moved to where they end up
+     * and the selection is only updated once.
+     * 
+     * @return true if quit was pressed
+     */
+    boolean handleInput() {
+        int x = cursorX, y = cursorY;
+        long now = System.nanoTime();
+        KeyEvent e;
+        while ((e = inputQueue.poll()) != null) {
+            inputQueueLatency.record(now - e.getTimeNanos());
+            this.inputNanos = KeyEvent.oldest(inputNanos, e.getTimeNanos());
+            int keyCode = e.getKeyCode();
+            if (isMove(keyCode)) {
+                movesMade++;
+                moveRate.increment();
+            }
+            if (keyCode == KeyEvent.Q) {
+                return true;
+            }
+            if (!isRunning) {
+                continue;
+            }
+            switch (keyCode) {
                 // Mine cell selection
                 // If the new selection is out of bounds, don't change it
                 // Cursor coordinates follow 2D array coordinates, so up and
                 // down are "flipped"
-                case NativeKeyEvent.VC_UP:
-                    // Decrement cursorY
-                    if (cursorY > 0) {
-                        this.cursorY--;
-                        updateSelectedCell();
-                    }
+                case KeyEvent.UP:
+                    y = Math.max(y - 1, 0);
                     break;
-                case NativeKeyEvent.VC_DOWN:
-                    // Increment cursorY
-                    if (cursorY < sizeY - 1) {
-                        this.cursorY++;
-                        updateSelectedCell();
-                    }
+                case KeyEvent.DOWN:
+                    y = Math.min(y + 1, sizeY - 1);
                     break;
-                case NativeKeyEvent.VC_RIGHT:
-                    if (cursorX < sizeX - 1) {
-                        this.cursorX++;
-                        updateSelectedCell();
-                    }
+                case KeyEvent.RIGHT:
+                    x = Math.min(x + 1, sizeX - 1);
                     break;
-                case NativeKeyEvent.VC_LEFT:
-                    if (cursorX > 0) {
-                        this.cursorX--;
-                        updateSelectedCell();
-                    }
+                case KeyEvent.LEFT:
+                    x = Math.max(x - 1, 0);
                     break;
 
                 // Mine cell selection
-                // VC_D for open, VC_F for flag
-                case NativeKeyEvent.VC_D:
-                    try {
-                        handleCellOpen(new CoordPoint(cursorX, cursorY));
-                    } catch (NativeHookException ex) {
-                        
+                // D for open, F for flag
+                // While a cascade is running, wait for it to finish so the
+                // presses are done in the order they were made. Cursor
+                // movement doesn't have to wait.
+                case KeyEvent.D:
+                case KeyEvent.F:
+                    moveCursor(x, y);
+                    PendingAction action = new PendingAction(keyCode, new CoordPoint(x, y));
+                    if (!revealQueue.isEmpty() || !pendingActions.isEmpty()) {
+                        pendingActions.add(action);
+                    } else {
+                        doAction(action);
                     }
                     break;
 
-                case NativeKeyEvent.VC_F:
-                    try {
-                        handleCellFlag(new CoordPoint(cursorX, cursorY));
-                    } catch (NativeHookException ex) {
-                        
-                    }
+                case KeyEvent.L:
+                    writeLatency();
                     break;
 
                 // Ignore all other keypresses
                 default:
                     break;
             }
-            drawGame();
-//            if (!isRunning) {
-//                System.exit(0);
-//            }
+        }
+        if (isRunning) {
+            moveCursor(x, y);
+        }
+        return false;
+    }
+    
+    private static boolean isMove(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.UP:
+            case KeyEvent.DOWN:
+            case KeyEvent.RIGHT:
+            case KeyEvent.LEFT:
+            case KeyEvent.D:
+            case KeyEvent.F:
+                return true;
+            default:
+                return false;
         }
     }
     
     /**
-     * Checks if the selected cell is a mine or not, then handles accordingly
+     * Moves the cursor, updating the selected cell if it changed
      * 
-     * @param coord 
+     * @param x
+     * @param y 
      */
-    private void handleCellOpen(CoordPoint coord) throws NativeHookException {
-        if (cells[coord.y][coord.x].isMine) {
-            // Selection is a mine
-            this.isRunning = false;
-            GlobalScreen.unregisterNativeHook();
-            this.endTimeMillis = System.currentTimeMillis();
-            drawGame();
+    void moveCursor(int x, int y) {
+        if (x != cursorX || y != cursorY) {
+            this.cursorX = x;
+            this.cursorY = y;
+            updateSelectedCell();
+        }
+    }
+    
+    /**
+     * If the selection was a mine, shows the board for a second before
+     * exiting. Call without holding the screen lock, so the sleep doesn't
+     * block anything else changing the screen.
+     */
+    private void exitIfLost() {
+        if (!isRunning && !gameWon) {
             try {
                 Thread.sleep(1000);
             } catch (InterruptedException ex) {
                 
             }
             exitGame();
+        }
+    }
+    
+    /**
+     * Opens or flags the cell for a key press
+     * 
+     * @param action 
+     */
+    private void doAction(PendingAction action) {
+        if (action.keyCode == KeyEvent.D) {
+            handleCellOpen(action.coord);
+        } else {
+            handleCellFlag(action.coord);
+        }
+    }
+    
+    /**
+     * Checks if the selected cell is a mine or not, then handles accordingly
+     * 
+     * @param coord 
+     */
+    private void handleCellOpen(CoordPoint coord) {
+        if (cells[coord.y][coord.x].isMine) {
+            // Selection is a mine
+            this.isRunning = false;
+            activeGames.decrementAndGet();
+            this.endTimeMillis = System.currentTimeMillis();
         } else {
             openCell(coord);
         }
@@ -399,26 +819,30 @@ public class Minesweeper implements NativeKeyListener {
      * 
      * @param coord 
      */    
-    private void handleCellFlag(CoordPoint coord) throws NativeHookException {
+    private void handleCellFlag(CoordPoint coord) {
         if (!cells[coord.y][coord.x].isOpen) {
             if (!cells[coord.y][coord.x].isFlagged) {
                 cells[coord.y][coord.x].isFlagged = true;
+                boardView.markCellDirty(coord.y, coord.x);
+                regionIndex.flagged(coord.y, coord.x, true);
                 this.numFlagsPlaced++;
                 if (cells[coord.y][coord.x].isMine) {
                     this.numFlagged++;
                 }
             } else {
                 cells[coord.y][coord.x].isFlagged = false;
+                boardView.markCellDirty(coord.y, coord.x);
+                regionIndex.flagged(coord.y, coord.x, false);
                 this.numFlagsPlaced--;
                 if (cells[coord.y][coord.x].isMine) {
                     this.numFlagged--;
                 }
             }
-            if (numFlagged == difficulty.numMines && numFlagged == numFlagsPlaced) {
+            if (numFlagged == numMines && numFlagged == numFlagsPlaced) {
                 // Game won
                 this.isRunning = false;
+                activeGames.decrementAndGet();
                 this.gameWon = true;
-                GlobalScreen.unregisterNativeHook();
                 this.endTimeMillis = System.currentTimeMillis();
                 long timeTaken = endTimeMillis - startTimeMillis;
                 writeScore(timeTaken, dateTimeStart);
@@ -428,15 +852,15 @@ public class Minesweeper implements NativeKeyListener {
     
     /**
      * Updates isSelected for the cell the cursor coords point to, and sets
-     * false to all other cells
+     * false for the previously selected cell
      */
-    private void updateSelectedCell() {
-        for (int r = 0; r < sizeY; r++) {
-            for (int c = 0; c < sizeX; c++) {
-                cells[r][c].isSelected = false;
-            }
-        }
+    void updateSelectedCell() {
+        cells[selectedY][selectedX].isSelected = false;
+        boardView.markCellDirty(selectedY, selectedX);
         cells[cursorY][cursorX].isSelected = true;
+        boardView.markCellDirty(cursorY, cursorX);
+        this.selectedX = cursorX;
+        this.selectedY = cursorY;
     }
 
     /**
@@ -448,7 +872,7 @@ public class Minesweeper implements NativeKeyListener {
      * 
      * @param n the number of mines to fill
      */
-    private void initBoard(int n) {
+    void initBoard(int n) {
         // Initialise all Cell objects
         for (int r = 0; r < sizeY; r++) {
             for (int c = 0; c < sizeX; c++) {
@@ -477,59 +901,123 @@ public class Minesweeper implements NativeKeyListener {
         
         // Set selected cell
         cells[cursorY][cursorX].isSelected = true;
+        this.selectedX = cursorX;
+        this.selectedY = cursorY;
+    }
+    
+    private static void addMine(Cell cell) {
+        if (!cell.isMine) {
+            cell.numAdjacentMines++;
+        }
     }
     
     /**
-     * Counts the number of adjacent mines at CoordPoint cell
-     * If the point passed is a mine, -1 is returned
+     * Opens the cell at coord, and the cells around it if it has no adjacent
+     * mines, and so on (a cascade).<br>
+     * The cascade is done by the game loop, a slice of REVEAL_SLICE_NANOS
+     * at a time, drawing the board after each slice.
      *
-     * @param c the mine coordinate to check
-     * 
-     * @return number of adjacent mines
+     * @param coord
      */
-    private byte countAdjacentMines(CoordPoint coord) {
-        Cell cell = cells[coord.y][coord.x];
-        if (cell.isMine) {
-            return -1;
+    void openCell(CoordPoint coord) {
+        // RevealEvent isn't even loaded unless the flight recorder is up,
+        // as loading an event class starts JFR (a few hundred ms)
+        if (FlightRecorder.isInitialized()) {
+            RevealEvent event = new RevealEvent();
+            event.begin();
+            event.row = coord.y;
+            event.column = coord.x;
+            this.revealEvent = event;
         }
-        
-        byte numMines = 0;
-        for (int dr = -1; dr <= 1; dr++) {
-            for (int dc = -1; dc <= 1; dc++) {
-                int r = coord.y + dr, c = coord.x + dc;
-                if (r >= 0 && r < sizeY && c >= 0 && c < sizeX) {
-                    numMines += cells[r][c].isMine ? 1 : 0;
-                }
-            }
+        this.numRevealed = 0;
+        revealCell(coord.y, coord.x);
+        if (revealQueue.isEmpty()) {
+            endReveal();
         }
-        
-        return numMines;
     }
-
+    
     /**
-     * Checks cell coord and write the adjacent mine number if there is one.
-     * Recursively check the adjacent cells.
-     *
-     * @param coord
+     * Commits revealEvent once the cell and its cascade have been opened
      */
-    private void openCell(CoordPoint coord) {
-        Cell cell = cells[coord.y][coord.x];
-        
+    private void endReveal() {
+        if (revealEvent != null && revealEvent.shouldCommit()) {
+            revealEvent.cellsRevealed = numRevealed;
+            revealEvent.commit();
+        }
+        this.revealEvent = null;
+    }
+    
+    /**
+     * Opens the cell if it isn't open or a mine. If it has no adjacent mines,
+     * it is queued so its neighbours are opened by revealSome().
+     * 
+     * @param r
+     * @param c 
+     */
+    private void revealCell(int r, int c) {
+        Cell cell = cells[r][c];
         if (!cell.isMine && !cell.isOpen) {
             cell.isOpen = true;
-            if (cell.numAdjacentMines != 0) {
-                return;
-            }
-            for (int dr = -1; dr <= 1; dr++) {
-                for (int dc = -1; dc <= 1; dc++) {
-                    int r = coord.y + dr, c = coord.x + dc;
-                    if (r == coord.y && c == coord.x) continue;
-                    if (r >= 0 && r < sizeY && c >= 0 && c < sizeX) {
-                        openCell(new CoordPoint(c, r));
-                    }
+            numRevealed++;
+            boardView.markCellDirty(r, c);
+            regionIndex.revealed(r, c);
+            if (cell.numAdjacentMines == 0) {
+                revealQueue.add(r * sizeX + c);
+            }
+        }
+    }
+    
+    /**
+     * Opens the neighbours of queued cells until the queue is empty or the
+     * deadline (System.nanoTime()) has passed
+     * 
+     * @param deadline
+     * @return true if the queue is empty
+     */
+    boolean revealSome(long deadline) {
+        int n = 0;
+        while (!revealQueue.isEmpty()) {
+            // Checking the time costs about as much as opening a cell, so
+            // only check every so often
+            if ((++n & 0xff) == 0 && System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            int i = revealQueue.poll();
+            int row = i / sizeX, column = i % sizeX;
+            if (neighbours.isInner(row, column)) {
+                int[] dr = neighbours.rowOffsets(row), dc = neighbours.columnOffsets(row);
+                for (int j = 0; j < dr.length; j++) {
+                    revealCell(row + dr[j], column + dc[j]);
+                }
+            } else {
+                int count = neighbours.find(row, column, neighbourRows, neighbourColumns);
+                for (int j = 0; j < count; j++) {
+                    revealCell(neighbourRows[j], neighbourColumns[j]);
                 }
             }
         }
+        return true;
+    }
+    
+    /**
+     * Continues the running cascade for one slice. When the cascade is done,
+     * the open and flag presses made during it are done in order, until one
+     * starts another cascade.
+     */
+    void continueReveal() {
+        if (revealEvent != null) {
+            revealEvent.slices++;
+        }
+        boolean done = revealSome(System.nanoTime() + REVEAL_SLICE_NANOS);
+        if (revealEvent != null && done) {
+            endReveal();
+        }
+        if (!done) {
+            return;
+        }
+        while (isRunning && revealQueue.isEmpty() && !pendingActions.isEmpty()) {
+            doAction(pendingActions.poll());
+        }
     }
     
     /**
@@ -558,7 +1046,18 @@ public class Minesweeper implements NativeKeyListener {
         File scoreFile = new File(scoreFileName);
         if (scoreFile.exists()) {
             Path filePath = scoreFile.toPath();
-            String scoreString = new String(Files.readAllBytes(filePath));
+            ScoreIOEvent event = FlightRecorder.isInitialized() ? new ScoreIOEvent() : null;
+            if (event != null) {
+                event.begin();
+            }
+            byte[] scoreBytes = Files.readAllBytes(filePath);
+            if (event != null && event.shouldCommit()) {
+                event.operation = "read";
+                event.file = scoreFileName;
+                event.bytes = scoreBytes.length;
+                event.commit();
+            }
+            String scoreString = new String(scoreBytes);
             System.out.println(scoreString);
             System.exit(0);
         } else {
@@ -567,93 +1066,342 @@ public class Minesweeper implements NativeKeyListener {
     }
 
     /**
-     * Writes the score (time in millis) and date to the scores file.
+     * Writes the score (time in millis) and date to the scores file on the
+     * score writer thread, and returns without waiting for it. Called with
+     * the screen lock held, so the file isn't touched here.
      */
     private void writeScore(long duration, ZonedDateTime datetime) {
-        try (FileWriter scoreFile = new FileWriter(scoreFileName, true)) {
-            scoreFile.write(
-                String.format(
-                    "Date: %s\nTime taken: %d sec\n\n",
-                    datetime.format(DateTimeFormatter.ISO_DATE_TIME),
-                    duration / 1000
-                )
-            );
+        String fileName = scoreFileName;
+        this.scoreWrite = CompletableFuture.runAsync(
+            () -> writeScore(fileName, duration, datetime), scoreWriter
+        );
+    }
+    
+    /**
+     * Appends the score to the file. Runs on the score writer thread.
+     */
+    private void writeScore(String fileName, long duration, ZonedDateTime datetime) {
+        ScoreIOEvent event = FlightRecorder.isInitialized() ? new ScoreIOEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long start = System.nanoTime();
+        String score = String.format(
+            "Date: %s\nTime taken: %d sec\n\n",
+            datetime.format(DateTimeFormatter.ISO_DATE_TIME),
+            duration / 1000
+        );
+        try (FileWriter scoreFile = new FileWriter(fileName, true)) {
+            scoreFile.write(score);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
+        scoreWriteLatency.record(System.nanoTime() - start);
+        if (event != null && event.shouldCommit()) {
+            event.operation = "write";
+            event.file = fileName;
+            event.bytes = score.length();
+            event.commit();
+        }
     }
     
     /**
-     * Creates the board to be drawn and updates boardScreen. If showMines is
-     * true, all mines are shown.
+     * Updates boardView for the cells changed since the last call. If
+     * showMines is true, all mines are shown.<br>
+     * Changed cells are marked with boardView.markCellDirty() where they are
+     * changed, so only those are read again.
      * 
      * @param showMines boolean to set whether to show mines or not
      */
-    private void drawBoard(boolean showMines) {
-        char[][] boardChars = new char[sizeY][sizeX];
-        boardScreen.clearAttr();
+    void drawBoard(boolean showMines) {
+        if (boardGrid.showMines != showMines) {
+            boardGrid.showMines = showMines;
+            boardView.markDirty();
+        }
+        boardView.scrollTo(cursorY, cursorX);
         
-        for (int r = 0; r < sizeY; r++) {
-            boardScreen.addDisplayAttr(SGR.BGWHITE, r, 0, sizeX);
-            for (int c = 0; c < sizeX; c++) {
-                boardChars[r][c] = cells[r][c].getCellChar(showMines);
-                if (cells[r][c].getCellDisplayAttr() != null) {
-                    boardScreen.addDisplayAttr(cells[r][c].getCellDisplayAttr(), r, c);
-                } else {
-//                    System.out.println("null displ attr");
-                }
+        // Neither does the minimap know the region index changed. It only
+        // needs rendering again when the counts or the highlighted viewport
+        // change, not for every cursor move.
+        if (minimapView != null) {
+            long changes = regionIndex.getChanges();
+            int originRow = boardView.getOriginRow(), originColumn = boardView.getOriginColumn();
+            if (changes != minimapChanges || originRow != minimapOriginRow
+                    || originColumn != minimapOriginColumn) {
+                minimapView.markDirty();
+                this.minimapChanges = changes;
+                this.minimapOriginRow = originRow;
+                this.minimapOriginColumn = originColumn;
             }
         }
-        
-        // Cursor
-        boardScreen.addDisplayAttr(SGR.UNDERLINE, cursorY, cursorX);
-        
-        boardScreen.setArray(boardChars);
     }
         
     /**
-     * Calls drawBoard() and updates the flagsLeft LTextComponent, then calls
-     * Screen.refresh(). If ifRunning is false, drawBoard() is called with
-     * parameter `true` and time taken is shown.<br>
-     * Also displays game end + won behaviour
+     * Calls updateView(), then screen.requestRefresh()
      */
     private void drawGame() {
+        updateView();
+        screen.requestRefresh(inputNanos);
+        this.inputNanos = 0;
+    }
+
+    /**
+     * Calls drawBoard() and updates the flagsLeft LTextComponent. If
+     * ifRunning is false, drawBoard() is called with parameter `true` and
+     * time taken is shown.<br>
+     * Also displays game end + won behaviour
+     */
+    void updateView() {
         // Only show mines if not isRunning
         drawBoard(!isRunning);
         if (isRunning) {
-            flagsLeftComponent.setText(String.format("Flags left: %d", difficulty.numMines - numFlagsPlaced));
-        } else {
-            Screen.removeComponent(flagsLeftComponent);
+            // Only format the text when it changes, since this is done for
+            // every cursor move
+            int flagsLeft = numMines - numFlagsPlaced;
+            if (flagsLeft != shownFlagsLeft) {
+                flagsLeftComponent.setText(String.format("Flags left: %d", flagsLeft));
+                this.shownFlagsLeft = flagsLeft;
+            }
+        } else if (timeTakenComponent == null) {
+            // Only done the first time the finished game is drawn, however
+            // many times it's drawn
+            screen.removeComponent(flagsLeftComponent);
             // Show time taken
             long timeTaken = endTimeMillis - startTimeMillis;
-            Screen.addComponent(new LTextComponent(1, sizeY + 3, 1, String.format("Time taken: %d sec", timeTaken / 1000)));
+            int boardRows = boardView.getSizeY();
+            this.timeTakenComponent = new LTextComponent(1, boardRows + 3, 1, String.format("Time taken: %d sec", timeTaken / 1000));
+            screen.addComponent(timeTakenComponent);
             if (gameWon) {
-                Screen.addComponent(new LTextComponent(1, sizeY + 4, 1, "Game Won"));
+                this.gameWonComponent = new LTextComponent(1, boardRows + 4, 1, "Game Won");
+                screen.addComponent(gameWonComponent);
             }
         }
-        try {
-            Screen.refresh();
-        } catch (IOException exc) {
-            exc.printStackTrace();
-            System.exit(1);
+    }
+    
+    /**
+     * Removes the last game's components from the screen, so another game
+     * can be started
+     */
+    private void removeGameComponents() {
+        for (ViewportComponent view : new ViewportComponent[] {boardView, minimapView}) {
+            if (view != null && view.getScreen() == screen) {
+                screen.removeComponent(view);
+            }
+        }
+        for (LTextComponent text : new LTextComponent[] {flagsLeftComponent, timeTakenComponent, gameWonComponent}) {
+            if (text != null && text.getScreen() == screen) {
+                screen.removeComponent(text);
+            }
         }
+        this.timeTakenComponent = null;
+        this.gameWonComponent = null;
     }
 
     /**
-     * Fills the adjacentMineNumbers array
+     * Fills the adjacentMineNumbers array. Each mine adds one to the
+     * cells next to it, which looks at far fewer cells than counting around
+     * every cell, since most cells aren't mines. Neighbours are neighbours
+     * both ways in every topology, so the counts are the same.
      */
-    private void fillAdjacentMineNumbers() {
+    void fillAdjacentMineNumbers() {
+        // Counts are zeroed a few rows ahead of the mines being counted, so
+        // the board is only gone through once. If the board wraps around,
+        // mines in the first rows add to the last ones, so those are zeroed
+        // first (all of them on boards too short to tell the two apart).
+        int reach = neighbours.getReach();
+        int zeroEnd = sizeY;
+        if (neighbours.wraps()) {
+            zeroEnd = sizeY <= 2 * reach ? 0 : sizeY - reach;
+            zeroRows(zeroEnd, sizeY);
+        }
+        int zeroed = 0;
         for (int r = 0; r < sizeY; r++) {
+            int ahead = Math.min(zeroEnd, r + reach + 2);
+            if (zeroed < ahead) {
+                zeroRows(zeroed, ahead);
+                zeroed = ahead;
+            }
+            // The mines away from the edges are added one neighbour row at
+            // a time, so only that row has to be in the cache, however many
+            // rows the neighbours span
+            Cell[] row = cells[r];
+            int numInner = 0;
             for (int c = 0; c < sizeX; c++) {
-                if (cells[r][c].isMine) {
+                if (!row[c].isMine) {
                     continue;
                 }
-                this.cells[r][c].numAdjacentMines = countAdjacentMines(new CoordPoint(c, r));
+                if (neighbours.isInner(r, c)) {
+                    innerMineColumns[numInner++] = c;
+                } else {
+                    int n = neighbours.find(r, c, neighbourRows, neighbourColumns);
+                    for (int i = 0; i < n; i++) {
+                        addMine(cells[neighbourRows[i]][neighbourColumns[i]]);
+                    }
+                }
+            }
+            if (numInner == 0) {
+                continue;
+            }
+            int[] dr = neighbours.rowOffsets(r), dc = neighbours.columnOffsets(r);
+            for (int i = 0; i < dr.length; i++) {
+                Cell[] neighbourRow = cells[r + dr[i]];
+                int d = dc[i];
+                for (int j = 0; j < numInner; j++) {
+                    addMine(neighbourRow[innerMineColumns[j] + d]);
+                }
             }
         }
     }
+
+    /**
+     * Sets the counts of the cells in rows from to end (exclusive) to 0
+     */
+    private void zeroRows(int from, int end) {
+        for (int r = from; r < end; r++) {
+            for (Cell cell : cells[r]) {
+                if (!cell.isMine) {
+                    cell.numAdjacentMines = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers the game's metrics with JMX on another thread, once. Called
+     * after the first frame, since loading JMX takes a while. They are
+     * unregistered by exitGame().
+     */
+    private void registerMetrics() {
+        if (this.metrics != null) return;
+        GameMetrics metrics = new GameMetrics(this, screen);
+        this.metrics = metrics;
+        Thread thread = new Thread(() -> {
+            try {
+                // Only once the first frame is on the terminal, so loading
+                // JMX doesn't hold it up when there is one CPU
+                screen.getWriter().awaitFirstFrame();
+                metrics.register();
+            } catch (InterruptedException | JMException ex) {
+                // The game works the same without metrics
+            }
+        }, "metrics-register");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    boolean isRunning() {
+        return isRunning;
+    }
+    
+    boolean isWon() {
+        return gameWon;
+    }
+    
+    static int getActiveGames() {
+        return activeGames.get();
+    }
+    
+    long getMovesMade() {
+        return movesMade;
+    }
+    
+    RateCounter getMoveRate() {
+        return moveRate;
+    }
+    
+    Histogram getScoreWriteLatency() {
+        return scoreWriteLatency;
+    }
+    
+    /**
+     * Estimates the memory used by the board (cells and region index), in
+     * bytes. Assumes 4 byte references and 12 byte object headers, so a
+     * cell is 24 bytes.
+     * 
+     * @return the estimated size in bytes, 0 before a game has started
+     */
+    long getBoardFootprintBytes() {
+        Cell[][] board = cells;
+        RegionIndex index = regionIndex;
+        if (board == null || index == null) return 0;
+        long rowBytes = 16 + 4L * sizeX + 24L * sizeX;
+        return 16 + 4L * board.length + board.length * rowBytes + index.getFootprintBytes();
+    }
+    
+    /**
+     * Writes the latency stats to fileName when L is pressed and when the
+     * program exits
+     * 
+     * @param fileName 
+     */
+    public void setLatencyFile(String fileName) {
+        this.latencyFileName = fileName;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::writeLatency, "latency-report"));
+    }
+    
+    /**
+     * Writes the latency stats to the latency file, replacing what was
+     * written before. Does nothing if there is no latency file.
+     */
+    private void writeLatency() {
+        if (latencyFileName == null) return;
+        try (PrintStream out = new PrintStream(new FileOutputStream(latencyFileName))) {
+            screen.getLatency().print(out);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+    
+    /**
+     * Sets the file scores are written to and read from
+     * 
+     * @param fileName 
+     */
+    void setScoreFile(String fileName) {
+        this.scoreFileName = fileName;
+    }
+    
+    /**
+     * Sets which cells are neighbours, for the games started after
+     * 
+     * @param topology 
+     */
+    public void setTopology(Topology topology) {
+        this.topology = topology;
+    }
+    
+    /**
+     * Sets a custom board size, used instead of asking for a difficulty. The
+     * board may be larger than the screen.
+     * 
+     * @param sizeX    number of columns
+     * @param sizeY    number of rows
+     * @param numMines number of mines
+     * @throws IllegalArgumentException if the size or number of mines is
+     *                                  invalid, or the board has more than
+     *                                  MAX_BOARD_CELLS cells
+     */
+    public void setBoardSize(int sizeX, int sizeY, int numMines) throws IllegalArgumentException {
+        if (sizeX < 1 || sizeY < 1)
+            throw new IllegalArgumentException("Board size must be at least 1x1");
+        if ((long) sizeX * sizeY > MAX_BOARD_CELLS)
+            throw new IllegalArgumentException("Board can have at most " + MAX_BOARD_CELLS + " cells");
+        if (numMines < 1 || numMines >= (long) sizeX * sizeY)
+            throw new IllegalArgumentException("Number of mines must be between 1 and the number of cells");
+        this.customSizeX = sizeX;
+        this.customSizeY = sizeY;
+        this.customNumMines = numMines;
+    }
         
     private void runGame() throws IOException, InterruptedException, ParserConfigurationException, SAXException {
+        long firstFrameStart = StartupProfile.start();
+        if (customSizeX > 0) {
+            startGame(customSizeX, customSizeY, customNumMines);
+            StartupProfile.firstFrame("board first frame", firstFrameStart, screen);
+            registerMetrics();
+            return;
+        }
+        
         // Title screen and game choice (choose difficulty/view past scores)
         LTextComponent title = new LTextComponent(2, 2, 1, "Minesweeper");
         String[] selections = {
@@ -663,13 +1411,17 @@ public class Minesweeper implements NativeKeyListener {
             "View scores",
             "Exit"
         };
-        SelectionComponent gameSelect = new SelectionComponent(2, 3, 1, selections);
-        Screen.addComponent(title);
-        Screen.addComponent(gameSelect);
-        Screen.refresh();
+        SelectionComponent gameSelect = new SelectionComponent(input, 2, 3, 1, selections);
+        screen.addComponent(title);
+        screen.addComponent(gameSelect);
+        screen.requestRefresh();
+        StartupProfile.firstFrame("menu first frame", firstFrameStart, screen);
+        registerMetrics();
         int selectInt = gameSelect.getChoice();
-        Screen.clrscr();
-        Screen.clearComponents();
+        synchronized (screen.getLock()) {
+            screen.clrscr();
+            screen.clearComponents();
+        }
         if (selectInt == 3) {
             showScores();
             System.exit(0);
@@ -677,37 +1429,107 @@ public class Minesweeper implements NativeKeyListener {
             System.exit(0);
         }
         
-        // Start the game - init the boards/status vars and draw
         this.difficulty = Difficulty.getDifficulty(selections[selectInt]);
-        this.sizeX = difficulty.sizeX;
-        this.sizeY = difficulty.sizeY;
+        startGame(difficulty.sizeX, difficulty.sizeY, difficulty.numMines);
+    }
+    
+    /**
+     * Starts a game on a board of the given size. Call after the difficulty
+     * (or custom board) has been chosen. May be called again to start
+     * another game, which replaces the last one.
+     * 
+     * @param boardSizeX
+     * @param boardSizeY
+     * @param boardNumMines 
+     */
+    void startGame(int boardSizeX, int boardSizeY, int boardNumMines) {
+        // Start the game - init the boards/status vars and draw. Hold the
+        // screen lock so key presses aren't handled before the game is set up
+        synchronized (screen.getLock()) {
+            // Playing again: clear the last game away. An unfinished game
+            // isn't active any more.
+            removeGameComponents();
+            if (isRunning) {
+                this.isRunning = false;
+                activeGames.decrementAndGet();
+            }
+            this.sizeX = boardSizeX;
+            this.sizeY = boardSizeY;
+            this.numMines = boardNumMines;
+            // The cursor starts in the top left of every board
+            this.cursorX = this.cursorY = 0;
         
-        this.cells = new Cell[sizeY][sizeX];
-        initBoard(difficulty.numMines);
-        // To debug adjacent cell numbers
-//        printAdjacents();
-//        exitGame();
+            long generationStart = StartupProfile.start();
+            BoardGenerationEvent generationEvent =
+                FlightRecorder.isInitialized() ? new BoardGenerationEvent() : null;
+            if (generationEvent != null) {
+                generationEvent.begin();
+            }
+            if (cellDisplayTable == null) {
+                this.cellDisplayTable = buildCellDisplayTable();
+            }
+            this.cells = new Cell[sizeY][sizeX];
+            this.neighbours = topology.forBoard(sizeY, sizeX);
+            if (innerMineColumns.length < sizeX) {
+                this.innerMineColumns = new int[sizeX];
+            }
+            this.regionIndex = new RegionIndex(sizeY, sizeX);
+            initBoard(numMines);
+            StartupProfile.end("board generation", generationStart);
+            if (generationEvent != null && generationEvent.shouldCommit()) {
+                generationEvent.columns = sizeX;
+                generationEvent.rows = sizeY;
+                generationEvent.mines = numMines;
+                generationEvent.commit();
+            }
+            // To debug adjacent cell numbers
+//            printAdjacents();
+//            exitGame();
         
-        // Initially fill boardScreen with an empty char array. Will be changed
-        // for each drawBoard() call
-        this.boardScreen = new CharArrayComponent(1, 1, sizeX, sizeY, 1, new char[sizeY][sizeX]);
-        this.numFlagsPlaced = this.numFlagged = 0;
+            this.boardGrid = new BoardGrid();
+            revealQueue.clear();
+            pendingActions.clear();
+            this.revealEvent = null;
+            this.numFlagsPlaced = this.numFlagged = 0;
+            
+            // Show as much of the board as fits, leaving 5 lines below it
+            // for the flags left, time taken and game won texts
+            int viewSizeX = Math.min(sizeX, screen.getNumColumns() - 1);
+            int viewSizeY = Math.min(sizeY, screen.getNumLines() - 5);
+            this.boardView = new ViewportComponent(1, 1, viewSizeX, viewSizeY, 1, boardGrid);
         
-        // flagsLeftComponent text will be set when the game starts
-        this.flagsLeftComponent = new LTextComponent(1, sizeY + 2, 1, "");
+            // flagsLeftComponent text will be set when the game starts
+            this.flagsLeftComponent = new LTextComponent(1, viewSizeY + 2, 1, "");
+            this.shownFlagsLeft = -1;
 
-        Screen.addComponent(boardScreen);
-        Screen.addComponent(flagsLeftComponent);
+            screen.addComponent(boardView);
+            screen.addComponent(flagsLeftComponent);
+            
+            // Show a minimap to the right of the board if it doesn't fit,
+            // leaving a column between them
+            int minimapStartX = viewSizeX + 3;
+            int minimapMaxSizeX = screen.getNumColumns() - minimapStartX;
+            this.minimapView = null;
+            if ((viewSizeX < sizeX || viewSizeY < sizeY) && minimapMaxSizeX >= 4) {
+                Minimap minimap = new Minimap(regionIndex, boardView, viewSizeY, minimapMaxSizeX);
+                this.minimapView = new ViewportComponent(
+                    minimapStartX, 1, minimap.getColumns(), minimap.getRows(), 1, minimap
+                );
+                screen.addComponent(minimapView);
+                this.minimapChanges = -1;
+            }
 
-        // Start the game and timer
-        this.startTimeMillis = System.currentTimeMillis();
-        this.dateTimeStart = ZonedDateTime.now();
-        this.isRunning = true;
-        this.gameWon = false;
-        drawGame();
+            // Start the game and timer
+            this.startTimeMillis = System.currentTimeMillis();
+            this.dateTimeStart = ZonedDateTime.now();
+            this.isRunning = true;
+            activeGames.incrementAndGet();
+            this.gameWon = false;
+            drawGame();
+        }
     }
     
-    public static void testScreen() {
+    public static void testScreen(Screen screen) {
         // CharArrayComponent test
         int rows = 10, cols = 10;
         char[][] testCharArray = new char[rows][cols];
@@ -719,25 +1541,24 @@ public class Minesweeper implements NativeKeyListener {
                 ca.addDisplayAttr(SGR.FGBRIGHTRED, r, c);
             }
         }
-        Screen.addComponent(ca);
+        screen.addComponent(ca);
         try {
-            Screen.refresh();
+            screen.refresh();
         } catch (IOException ex) {
             ex.printStackTrace();
             System.exit(1);
         }
     }
 
-    public static void main(String[] args) throws NativeHookException, IOException, InterruptedException, ParserConfigurationException, SAXException {
-        GlobalScreen.registerNativeHook();
-        Minesweeper game = new Minesweeper();
-        GlobalScreen.addNativeKeyListener(game);
-
+    public static void main(String[] args) throws IOException, InterruptedException, ParserConfigurationException, SAXException {
+        // Called first, so the startup profile is timed from here
+        long mainStart = StartupProfile.start();
+        
         // Size of screen to be used
         int lines, columns;
         try {
-            // Because echo is on, leave one line at bottom for any key presses
-            // printed out
+            // Leave one line at the bottom for the cursor, which is left
+            // below the frame
             lines = Integer.parseInt(System.getenv("LINES")) - 1;
         } catch (NumberFormatException e) {
             lines = 30;
@@ -748,7 +1569,117 @@ public class Minesweeper implements NativeKeyListener {
             columns = 50;
         }
 
-        Screen.initscr(lines, columns);
+        // Options needed before the screen is set up
+        String inputName = "terminal";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--input") && i + 1 < args.length) {
+                inputName = args[i + 1];
+            } else if (args[i].equals("--startup-profile")) {
+                StartupProfile.enable();
+            }
+        }
+        StartupProfile.end("arguments", mainStart);
+        
+        // Key presses are read from the terminal, unless --input native is
+        // passed to use jnativehook instead, or --input pipe to read keys
+        // piped to stdin without setting up a terminal. NativeHookInput is
+        // only loaded (with jnativehook) if create() is called.
+        InputSource input;
+        if (inputName.equals("native")) {
+            input = NativeHookInput.create();
+        } else if (inputName.equals("pipe")) {
+            input = new TerminalInput(System.in);
+        } else {
+            input = new TerminalInput();
+        }
+
+        long initscrStart = StartupProfile.start();
+        Screen screen = Screen.initscr(lines, columns);
+        StartupProfile.end("initscr", initscrStart);
+        Minesweeper game = new Minesweeper(screen, input);
+        
+        // Custom board size: --board COLUMNSxROWS:MINES (e.g. 200x100:3000)
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--board") && i + 1 < args.length) {
+                int[] board;
+                try {
+                    String[] sizeAndMines = args[++i].split(":");
+                    String[] size = sizeAndMines[0].split("x");
+                    board = new int[] {
+                        Integer.parseInt(size[0]),
+                        Integer.parseInt(size[1]),
+                        Integer.parseInt(sizeAndMines[1])
+                    };
+                } catch (RuntimeException e) {
+                    screen.endwin();
+                    System.out.println("Invalid board, expected --board COLUMNSxROWS:MINES");
+                    System.exit(1);
+                    return;
+                }
+                try {
+                    game.setBoardSize(board[0], board[1], board[2]);
+                } catch (IllegalArgumentException e) {
+                    screen.endwin();
+                    System.out.println("Invalid board: " + e.getMessage());
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--record") && i + 1 < args.length) {
+                // Record everything drawn to a file, which can be played back
+                // with cat
+                String recordFile = args[++i];
+                try {
+                    screen.getWriter().addSink("record", new FileOutputStream(recordFile));
+                } catch (IOException e) {
+                    screen.endwin();
+                    System.out.println("Unable to open " + recordFile + " for recording");
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--topology") && i + 1 < args.length) {
+                // Which cells are neighbours: square, torus, hex or knight
+                try {
+                    game.setTopology(Topology.getTopology(args[++i]));
+                } catch (IllegalArgumentException e) {
+                    screen.endwin();
+                    System.out.println("Invalid topology, expected --topology square|torus|hex|knight");
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--latency") && i + 1 < args.length) {
+                // Write the input to screen latency stats to a file on exit
+                // and when L is pressed
+                game.setLatencyFile(args[++i]);
+            } else if (args[i].equals("--spectate") && i + 1 < args.length) {
+                // Let others watch with e.g. nc host PORT
+                try {
+                    new SpectatorServer(screen.getWriter(), Integer.parseInt(args[++i])).start();
+                } catch (IOException | RuntimeException e) {
+                    screen.endwin();
+                    System.out.println("Unable to listen for spectators, expected --spectate PORT");
+                    System.exit(1);
+                }
+            }
+        }
+
+        game.startGameLoop();
+        input.addKeyListener(game);
+        // Start reading key presses on another thread, so setting up the
+        // input (stty, or loading the native library) doesn't hold up the
+        // first frame. Keys can't be pressed before it's shown anyway.
+        Thread inputStart = new Thread(() -> {
+            long start = StartupProfile.start();
+            try {
+                input.start();
+            } catch (IOException e) {
+                try {
+                    screen.endwin();
+                } catch (IOException ex) {
+                    
+                }
+                System.out.println("Unable to read key presses: " + e.getMessage());
+                System.exit(1);
+            }
+            StartupProfile.end("input start", start);
+        }, "input-start");
+        inputStart.start();
 
         // Uncomment for debugging
 //        System.out.println(String.format("lines %d, columns %d", lines, columns));
@@ -757,6 +1688,6 @@ public class Minesweeper implements NativeKeyListener {
 //        } catch (InterruptedException e) {}
 
         game.runGame();
-//        testScreen();
+//        testScreen(screen);
     }
 }
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import screen.CellGrid;
+import screen.DisplayCharacter;
+import screen.SGR;
+import screen.SGRSequence;
+import screen.ViewportComponent;
+
+/**
+ * Reduced resolution view of the board, shown next to the board when it is
+ * too large for the screen. Each minimap cell covers a block of RegionIndex
+ * tiles and is shaded by how much of it is unexplored:<br>
+ * - ' ' : all open<br>
+ * - light, medium and dark shade : partly open (less to more unexplored)<br>
+ * - full block : nothing open<br>
+ * Blocks with flags are shown in red, and the blocks visible in the board
+ * viewport are highlighted. <br>
+ *
+ * Cells are computed from the RegionIndex when rendered, so a render costs
+ * O(tiles on screen) and doesn't look at the board itself.
+ *
+ * @author kaiyu
+ */
+class Minimap implements CellGrid {
+    // Space, light shade, medium shade, dark shade, full block
+    private static final char[] SHADES = {' ', '\u2591', '\u2592', '\u2593', '\u2588'};
+
+    /**
+     * Every character the minimap can show, indexed by
+     * [highlighted][flagged][shade], so rendering doesn't allocate
+     */
+    private static final DisplayCharacter[][][] CELLS = new DisplayCharacter[2][2][SHADES.length];
+
+    static {
+        for (int highlighted = 0; highlighted < 2; highlighted++) {
+            for (int flagged = 0; flagged < 2; flagged++) {
+                SGRSequence attrs = SGRSequence.of(
+                    highlighted == 1 ? SGR.UNDERLINE : null,
+                    flagged == 1 ? SGR.FGRED : null
+                );
+                for (int shade = 0; shade < SHADES.length; shade++) {
+                    CELLS[highlighted][flagged][shade] = new DisplayCharacter(SHADES[shade], attrs);
+                }
+            }
+        }
+    }
+
+    private final RegionIndex index;
+    private final ViewportComponent boardView;
+
+    // Size of the minimap, and number of tiles each minimap cell covers
+    private final int rows, columns;
+    private final int tilesPerRow, tilesPerColumn;
+
+    /**
+     * @param index     the index of the board
+     * @param boardView the viewport showing the board, highlighted on the
+     *                  minimap
+     * @param maxRows    maximum number of rows
+     * @param maxColumns maximum number of columns
+     */
+    Minimap(RegionIndex index, ViewportComponent boardView, int maxRows, int maxColumns) {
+        this.index = index;
+        this.boardView = boardView;
+        this.tilesPerRow = (index.tileRows + maxRows - 1) / maxRows;
+        this.tilesPerColumn = (index.tileColumns + maxColumns - 1) / maxColumns;
+        this.rows = (index.tileRows + tilesPerRow - 1) / tilesPerRow;
+        this.columns = (index.tileColumns + tilesPerColumn - 1) / tilesPerColumn;
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getColumns() {
+        return columns;
+    }
+
+    @Override
+    public DisplayCharacter getCell(int row, int column) {
+        int tileRow0 = row * tilesPerRow, tileRow1 = tileRow0 + tilesPerRow;
+        int tileColumn0 = column * tilesPerColumn, tileColumn1 = tileColumn0 + tilesPerColumn;
+
+        long cells = index.countCells(tileRow0, tileColumn0, tileRow1, tileColumn1);
+        long unrevealed = index.countUnrevealed(tileRow0, tileColumn0, tileRow1, tileColumn1);
+        boolean flagged = index.countFlagged(tileRow0, tileColumn0, tileRow1, tileColumn1) > 0;
+
+        int shade;
+        if (unrevealed == 0) {
+            shade = 0;
+        } else if (unrevealed == cells) {
+            shade = SHADES.length - 1;
+        } else {
+            // 1 to SHADES.length - 2 for partly open blocks
+            shade = 1 + (int) (unrevealed * (SHADES.length - 2) / cells);
+            shade = Math.min(shade, SHADES.length - 2);
+        }
+
+        // Highlight the blocks which overlap the board viewport
+        int cellRow0 = tileRow0 * RegionIndex.TILE, cellRow1 = tileRow1 * RegionIndex.TILE;
+        int cellColumn0 = tileColumn0 * RegionIndex.TILE, cellColumn1 = tileColumn1 * RegionIndex.TILE;
+        int viewRow = boardView.getOriginRow(), viewColumn = boardView.getOriginColumn();
+        boolean highlighted = cellRow0 < viewRow + boardView.getSizeY() && viewRow < cellRow1
+            && cellColumn0 < viewColumn + boardView.getSizeX() && viewColumn < cellColumn1;
+
+        return CELLS[highlighted ? 1 : 0][flagged ? 1 : 0][shade];
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events per second over a sliding window of whole seconds. Written
+ * by one thread, read by any.
+ *
+ * @author kaiyu
+ */
+final class RateCounter {
+    // Seconds in the window
+    private static final int SECONDS = 10;
+
+    // Counts by second, indexed by Math.floorMod(second, SECONDS)
+    private final AtomicLongArray counts = new AtomicLongArray(SECONDS);
+    // The second each count is for
+    private final AtomicLongArray seconds = new AtomicLongArray(SECONDS);
+
+    /**
+     * Counts one event now. Only call from one thread.
+     */
+    void increment() {
+        long second = currentSecond();
+        int i = Math.floorMod(second, SECONDS);
+        if (seconds.get(i) != second) {
+            // The count is from a second which has left the window
+            counts.set(i, 0);
+            seconds.set(i, second);
+        }
+        counts.incrementAndGet(i);
+    }
+
+    /**
+     * Returns the mean number of events per second over the last SECONDS
+     * whole seconds
+     *
+     * @return events per second
+     */
+    double getRate() {
+        long now = currentSecond();
+        long total = 0;
+        for (int i = 0; i < SECONDS; i++) {
+            long second = seconds.get(i);
+            // Only whole seconds in the window count
+            if (second < now && now - second <= SECONDS) {
+                total += counts.get(i);
+            }
+        }
+        return (double) total / SECONDS;
+    }
+
+    /**
+     * Returns the second System.nanoTime() is in. nanoTime() may be
+     * negative, so it's rounded down rather than towards zero, which would
+     * put the second either side of 0 in the same bucket.
+     */
+    private static long currentSecond() {
+        return Math.floorDiv(System.nanoTime(), 1_000_000_000L);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+/**
+ * Summary of revealed and flagged cell counts by region of the board, kept up
+ * to date as cells are opened and flagged. <br>
+ *
+ * The board is split into tiles of TILE x TILE cells, and the tiles into
+ * blocks of BLOCK x BLOCK tiles. Each tile and block stores its counts, so a
+ * query over a range of tiles adds up whole blocks in the middle and tiles
+ * only around the edges, instead of looking at every cell. Updates change one
+ * tile and one block.
+ *
+ * @author kaiyu
+ */
+class RegionIndex {
+    // Cells per tile side, and tiles per block side
+    static final int TILE = 8;
+    static final int BLOCK = 8;
+
+    // Board size in cells
+    final int rows, columns;
+
+    // Board size in tiles and blocks (partial tiles/blocks at the edges count)
+    final int tileRows, tileColumns;
+    final int blockRows, blockColumns;
+
+    // Counts per tile (at most TILE * TILE, so a byte is enough) and block
+    private final byte[] tileRevealed, tileFlagged;
+    private final int[] blockRevealed, blockFlagged;
+
+    // Number of updates made, so views can tell whether any counts changed
+    private long changes;
+
+    RegionIndex(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.tileRows = (rows + TILE - 1) / TILE;
+        this.tileColumns = (columns + TILE - 1) / TILE;
+        this.blockRows = (tileRows + BLOCK - 1) / BLOCK;
+        this.blockColumns = (tileColumns + BLOCK - 1) / BLOCK;
+
+        this.tileRevealed = new byte[tileRows * tileColumns];
+        this.tileFlagged = new byte[tileRows * tileColumns];
+        this.blockRevealed = new int[blockRows * blockColumns];
+        this.blockFlagged = new int[blockRows * blockColumns];
+    }
+
+    /**
+     * Records that the cell at row, column was opened. Call once per cell.
+     *
+     * @param row
+     * @param column
+     */
+    void revealed(int row, int column) {
+        int tileRow = row / TILE, tileColumn = column / TILE;
+        tileRevealed[tileRow * tileColumns + tileColumn]++;
+        blockRevealed[(tileRow / BLOCK) * blockColumns + tileColumn / BLOCK]++;
+        changes++;
+    }
+
+    /**
+     * Records that a flag was placed on (or removed from) the cell at row,
+     * column
+     *
+     * @param row
+     * @param column
+     * @param isFlagged true if a flag was placed, false if one was removed
+     */
+    void flagged(int row, int column, boolean isFlagged) {
+        int tileRow = row / TILE, tileColumn = column / TILE;
+        int delta = isFlagged ? 1 : -1;
+        tileFlagged[tileRow * tileColumns + tileColumn] += delta;
+        blockFlagged[(tileRow / BLOCK) * blockColumns + tileColumn / BLOCK] += delta;
+        changes++;
+    }
+
+    /**
+     * Returns the number of updates made to the counts. If it is the same
+     * as when last read, no count has changed since.
+     *
+     * @return the number of updates
+     */
+    long getChanges() {
+        return changes;
+    }
+
+    /**
+     * Returns the number of cells in the range of tiles. The ranges are
+     * start inclusive, end exclusive, in tile coordinates.
+     *
+     * @param tileRow0
+     * @param tileColumn0
+     * @param tileRow1
+     * @param tileColumn1
+     * @return the number of cells
+     */
+    long countCells(int tileRow0, int tileColumn0, int tileRow1, int tileColumn1) {
+        long cellRows = Math.min(tileRow1 * TILE, rows) - tileRow0 * TILE;
+        long cellColumns = Math.min(tileColumn1 * TILE, columns) - tileColumn0 * TILE;
+        return Math.max(cellRows, 0) * Math.max(cellColumns, 0);
+    }
+
+    /**
+     * Returns the number of opened cells in the range of tiles
+     *
+     * @see #countCells(int, int, int, int)
+     */
+    long countRevealed(int tileRow0, int tileColumn0, int tileRow1, int tileColumn1) {
+        return sum(tileRevealed, blockRevealed, tileRow0, tileColumn0, tileRow1, tileColumn1);
+    }
+
+    /**
+     * Returns the number of flagged cells in the range of tiles
+     *
+     * @see #countCells(int, int, int, int)
+     */
+    long countFlagged(int tileRow0, int tileColumn0, int tileRow1, int tileColumn1) {
+        return sum(tileFlagged, blockFlagged, tileRow0, tileColumn0, tileRow1, tileColumn1);
+    }
+
+    /**
+     * Returns the number of cells in the range of tiles which are not open
+     *
+     * @see #countCells(int, int, int, int)
+     */
+    long countUnrevealed(int tileRow0, int tileColumn0, int tileRow1, int tileColumn1) {
+        return countCells(tileRow0, tileColumn0, tileRow1, tileColumn1)
+            - countRevealed(tileRow0, tileColumn0, tileRow1, tileColumn1);
+    }
+
+    /**
+     * Adds up the counts over a range of tiles. Blocks entirely inside the
+     * range are added as a whole, and the tiles around them one by one.
+     */
+    private long sum(byte[] tiles, int[] blocks, int tileRow0, int tileColumn0, int tileRow1, int tileColumn1) {
+        tileRow1 = Math.min(tileRow1, tileRows);
+        tileColumn1 = Math.min(tileColumn1, tileColumns);
+
+        // Blocks entirely inside the range. A block at the bottom/right edge
+        // of the board is inside if the range reaches the edge.
+        int blockRow0 = (tileRow0 + BLOCK - 1) / BLOCK;
+        int blockColumn0 = (tileColumn0 + BLOCK - 1) / BLOCK;
+        int blockRow1 = tileRow1 == tileRows ? blockRows : tileRow1 / BLOCK;
+        int blockColumn1 = tileColumn1 == tileColumns ? blockColumns : tileColumn1 / BLOCK;
+        if (blockRow0 >= blockRow1 || blockColumn0 >= blockColumn1) {
+            blockRow0 = blockRow1 = blockColumn0 = blockColumn1 = 0;
+        }
+        int innerRow0 = blockRow0 * BLOCK, innerRow1 = Math.min(blockRow1 * BLOCK, tileRows);
+        int innerColumn0 = blockColumn0 * BLOCK, innerColumn1 = Math.min(blockColumn1 * BLOCK, tileColumns);
+
+        long total = 0;
+        for (int br = blockRow0; br < blockRow1; br++) {
+            for (int bc = blockColumn0; bc < blockColumn1; bc++) {
+                total += blocks[br * blockColumns + bc];
+            }
+        }
+
+        for (int tr = tileRow0; tr < tileRow1; tr++) {
+            boolean innerRow = tr >= innerRow0 && tr < innerRow1;
+            for (int tc = tileColumn0; tc < tileColumn1; tc++) {
+                if (innerRow && tc >= innerColumn0 && tc < innerColumn1) {
+                    // Skip over the tiles already counted by blocks
+                    tc = innerColumn1 - 1;
+                    continue;
+                }
+                total += tiles[tr * tileColumns + tc];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Estimates the memory used by the counts, in bytes
+     *
+     * @return the estimated size in bytes
+     */
+    long getFootprintBytes() {
+        return 2 * (16L + tileRevealed.length) + 2 * (16 + 4L * blockRevealed.length) + 48;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for opening a cell, from the key press being
+ * handled until the cascade it started (if any) has finished. A cascade is
+ * done in slices between frames, so the duration can span several frames.
+ *
+ * @author kaiyu
+ */
+@Name("minesweeper.Reveal")
+@Label("Reveal")
+@Category({"Minesweeper"})
+@Description("Opening a cell and the flood fill of empty cells around it")
+final class RevealEvent extends jdk.jfr.Event {
+    @Label("Row")
+    int row;
+
+    @Label("Column")
+    int column;
+
+    @Label("Cells Revealed")
+    int cellsRevealed;
+
+    @Label("Slices")
+    @Description("Number of game loop slices the flood fill was done in")
+    int slices;
+}
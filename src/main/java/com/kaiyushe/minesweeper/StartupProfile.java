@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import screen.Screen;
+import screen.TerminalWriter;
+
+/**
+ * Times the phases of starting the game, for --startup-profile. <br>
+ *
+ * Phases are timed with start() and end(). When profiling is off these only
+ * read the clock, so they are left in place. The report is printed to stderr
+ * when the program exits, with every phase as an offset from the JVM
+ * starting, and when the first frame (the menu, or the board for --board)
+ * was written to the terminal, against the budget. FirstFrameBudget in
+ * src/jmh runs the game headless and fails the jmh profile if the first
+ * frame is over budget.
+ *
+ * @author kaiyu
+ */
+final class StartupProfile {
+    /**
+     * How long after the JVM starts the first frame may be written to the
+     * terminal, unless the system property BUDGET_PROPERTY sets another
+     * budget for the machine
+     */
+    static final long FIRST_FRAME_BUDGET_MILLIS = 250;
+
+    static final String BUDGET_PROPERTY = "minesweeper.firstFrameBudgetMillis";
+
+    private static final class Phase {
+        final String name;
+        final long startNanos, endNanos;
+
+        Phase(String name, long startNanos, long endNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    private static volatile boolean enabled;
+
+    // When main() started, in both clocks, to line the phases up with the
+    // JVM start time
+    private static final long mainNanos = System.nanoTime();
+    private static final long mainMillis = System.currentTimeMillis();
+
+    private static final ArrayList<Phase> phases = new ArrayList<>();
+
+    // The phase ending with the first frame on the terminal, which is only
+    // known once the writer has flushed it. Guarded by phases.
+    private static String firstFrameName;
+    private static long firstFrameStartNanos;
+    private static TerminalWriter firstFrameWriter;
+
+    private StartupProfile() {
+    }
+
+    /**
+     * Turns profiling on. The report is printed when the program exits.
+     */
+    static void enable() {
+        enabled = true;
+        Runtime.getRuntime().addShutdownHook(
+            new Thread(() -> report(System.err), "startup-profile")
+        );
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the first frame budget, from BUDGET_PROPERTY if it's set
+     *
+     * @return the budget in milliseconds after the JVM starts
+     */
+    static long getFirstFrameBudgetMillis() {
+        return Long.getLong(BUDGET_PROPERTY, FIRST_FRAME_BUDGET_MILLIS);
+    }
+
+    /**
+     * Returns the start time to pass to end()
+     *
+     * @return System.nanoTime()
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a phase which started at startNanos and has just ended. Can be
+     * called from any thread.
+     *
+     * @param name
+     * @param startNanos the time returned by start()
+     */
+    static void end(String name, long startNanos) {
+        if (!enabled) return;
+        long now = System.nanoTime();
+        synchronized (phases) {
+            phases.add(new Phase(name, startNanos, now));
+        }
+    }
+
+    /**
+     * Records the phase ending with the first frame on the terminal, once a
+     * frame has been requested. Nothing is drawn or waited for here, so the
+     * startup profiled is the same as without profiling: the phase ends when
+     * the screen's writer flushes its first frame to the terminal, and is
+     * read from the writer for the report. Only the first call counts.
+     *
+     * @param name
+     * @param startNanos
+     * @param screen
+     */
+    static void firstFrame(String name, long startNanos, Screen screen) {
+        if (!enabled) return;
+        synchronized (phases) {
+            if (firstFrameWriter != null) return;
+            firstFrameName = name;
+            firstFrameStartNanos = startNanos;
+            firstFrameWriter = screen.getWriter();
+        }
+    }
+
+    /**
+     * Prints every phase, with its start as milliseconds since the JVM
+     * started, and how long it took
+     *
+     * @param out
+     */
+    static void report(PrintStream out) {
+        // Read only now, so loading the management classes isn't counted
+        long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+        long mainOffsetNanos = (mainMillis - jvmStartMillis) * 1_000_000L;
+        synchronized (phases) {
+            ArrayList<Phase> all = new ArrayList<>(phases);
+            long firstFrameNanos = firstFrameWriter == null ? 0 : firstFrameWriter.getFirstFrameNanos();
+            if (firstFrameNanos != 0) {
+                all.add(new Phase(firstFrameName, firstFrameStartNanos, firstFrameNanos));
+                all.sort(Comparator.comparingLong(phase -> phase.startNanos));
+            }
+            out.println("Startup profile (ms since JVM start)");
+            out.println(String.format("  %-24s %8s %8s", "phase", "start", "took"));
+            out.println(String.format("  %-24s %8.1f %8.1f", "JVM start to main", 0.0, mainOffsetNanos / 1e6));
+            for (Phase phase : all) {
+                out.println(String.format(
+                    "  %-24s %8.1f %8.1f",
+                    phase.name,
+                    (mainOffsetNanos + phase.startNanos - mainNanos) / 1e6,
+                    (phase.endNanos - phase.startNanos) / 1e6
+                ));
+            }
+            if (firstFrameNanos != 0) {
+                double firstFrameMillis = (mainOffsetNanos + firstFrameNanos - mainNanos) / 1e6;
+                long budget = getFirstFrameBudgetMillis();
+                out.println(String.format(
+                    "First frame at %.1f ms (budget %d ms)%s",
+                    firstFrameMillis,
+                    budget,
+                    firstFrameMillis > budget ? " OVER BUDGET" : ""
+                ));
+            } else if (firstFrameWriter != null) {
+                out.println("First frame not written to the terminal");
+            }
+        }
+    }
+}
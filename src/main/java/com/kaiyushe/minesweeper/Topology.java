@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.kaiyushe.minesweeper;
+
+/**
+ * Which cells are neighbours of each other: the cells counted for a cell's
+ * number, and opened around a cell with no adjacent mines. <br>
+ *
+ * Each topology is a table of row and column offsets to the neighbours. For
+ * a board of a given size, Neighbours precomputes the table, so cells away
+ * from the edges are looked up with no bounds checks at all.
+ *
+ * @author kaiyu
+ */
+public enum Topology {
+    /**
+     * The usual board: the eight cells around a cell
+     */
+    SQUARE(false, new int[][] {
+        {-1, -1, -1, 0, 0, 1, 1, 1},
+        {-1, 0, 1, -1, 1, -1, 0, 1}
+    }),
+
+    /**
+     * The eight cells around a cell, wrapping around the edges, so the
+     * board has no edges at all
+     */
+    TORUS(true, SQUARE.offsets[0]),
+
+    /**
+     * Hexagonal cells, with odd rows shifted half a cell to the right. Each
+     * cell has six neighbours: two above, two beside and two below.
+     */
+    HEX(false, new int[][] {
+        // Even rows
+        {-1, -1, 0, 0, 1, 1},
+        {-1, 0, -1, 1, -1, 0}
+    }, new int[][] {
+        // Odd rows
+        {-1, -1, 0, 0, 1, 1},
+        {0, 1, -1, 1, 0, 1}
+    }),
+
+    /**
+     * The eight cells a chess knight can move to
+     */
+    KNIGHT(false, new int[][] {
+        {-2, -2, -1, -1, 1, 1, 2, 2},
+        {-1, 1, -2, 2, -2, 2, -1, 1}
+    });
+
+    /**
+     * Most neighbours a cell can have in any topology
+     */
+    static final int MAX_NEIGHBOURS = 8;
+
+    private final boolean wraps;
+
+    // Row and column offsets to the neighbours, by row parity
+    private final int[][][] offsets;
+
+    private Topology(boolean wraps, int[][]... offsets) {
+        this.wraps = wraps;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Returns the topology with the name (case insensitive)
+     *
+     * @param name
+     * @return the topology
+     * @throws IllegalArgumentException if there is no topology with the name
+     */
+    public static Topology getTopology(String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    /**
+     * Precomputes the neighbour tables for a board
+     *
+     * @param rows
+     * @param columns
+     * @return the neighbours of each cell of the board
+     */
+    Neighbours forBoard(int rows, int columns) {
+        return new Neighbours(this, rows, columns);
+    }
+
+    /**
+     * The neighbours of each cell of one board size. Finding the neighbours
+     * doesn't allocate.
+     */
+    static final class Neighbours {
+        private final int rows, columns;
+        private final boolean wraps;
+
+        // Row and column offsets by row parity (the same for both, except
+        // for HEX)
+        private final int[][] rowOffsets, columnOffsets;
+
+        // Distance from the edge past which every neighbour is on the board
+        private final int margin;
+
+        // Cells with no neighbours off the board: rows and columns from margin
+        // to these (exclusive)
+        private final int innerRowEnd, innerColumnEnd;
+
+        // True if the board is so small that wrapping can make a cell its own
+        // neighbour, or the same cell a neighbour twice
+        private final boolean small;
+
+        private Neighbours(Topology topology, int rows, int columns) {
+            this.rows = rows;
+            this.columns = columns;
+            this.wraps = topology.wraps;
+            this.rowOffsets = new int[2][];
+            this.columnOffsets = new int[2][];
+            int reach = 0;
+            for (int parity = 0; parity < 2; parity++) {
+                int[][] table = topology.offsets[parity % topology.offsets.length];
+                rowOffsets[parity] = table[0];
+                columnOffsets[parity] = table[1];
+                for (int i = 0; i < table[0].length; i++) {
+                    reach = Math.max(reach, Math.max(Math.abs(table[0][i]), Math.abs(table[1][i])));
+                }
+            }
+            this.margin = reach;
+            // Wrapping boards smaller than the offsets can reach would have
+            // cells that are their own neighbour, or the same neighbour
+            // twice, so those are always looked up the slow way
+            this.small = rows <= 2 * reach || columns <= 2 * reach;
+            this.innerRowEnd = small ? 0 : rows - reach;
+            this.innerColumnEnd = small ? 0 : columns - reach;
+        }
+
+        boolean wraps() {
+            return wraps;
+        }
+
+        /**
+         * Returns the furthest a neighbour is from a cell, in rows or columns
+         *
+         * @return the reach
+         */
+        int getReach() {
+            return margin;
+        }
+
+        /**
+         * Returns true if every neighbour of the cell is on the board, and
+         * found by adding rowOffsets() and columnOffsets() to the cell's row
+         * and column, without wrapping or bounds checks
+         *
+         * @param row
+         * @param column
+         * @return true if the cell is away from the edges
+         */
+        boolean isInner(int row, int column) {
+            return row >= margin && row < innerRowEnd && column >= margin && column < innerColumnEnd;
+        }
+
+        int[] rowOffsets(int row) {
+            return rowOffsets[row & 1];
+        }
+
+        int[] columnOffsets(int row) {
+            return columnOffsets[row & 1];
+        }
+
+        /**
+         * Finds the neighbours of a cell
+         *
+         * @param row
+         * @param column
+         * @param neighbourRows    filled with the rows of the neighbours,
+         *                         at least MAX_NEIGHBOURS long
+         * @param neighbourColumns filled with the columns of the neighbours
+         * @return the number of neighbours
+         */
+        int find(int row, int column, int[] neighbourRows, int[] neighbourColumns) {
+            int[] dr = rowOffsets[row & 1], dc = columnOffsets[row & 1];
+            if (isInner(row, column)) {
+                for (int i = 0; i < dr.length; i++) {
+                    neighbourRows[i] = row + dr[i];
+                    neighbourColumns[i] = column + dc[i];
+                }
+                return dr.length;
+            }
+
+            // Near an edge
+            int n = 0;
+            for (int i = 0; i < dr.length; i++) {
+                int r = row + dr[i], c = column + dc[i];
+                if (wraps) {
+                    r = Math.floorMod(r, rows);
+                    c = Math.floorMod(c, columns);
+                    if (small && ((r == row && c == column)
+                            || contains(neighbourRows, neighbourColumns, n, r, c))) {
+                        continue;
+                    }
+                } else if (r < 0 || r >= rows || c < 0 || c >= columns) {
+                    continue;
+                }
+                neighbourRows[n] = r;
+                neighbourColumns[n] = c;
+                n++;
+            }
+            return n;
+        }
+
+        private static boolean contains(int[] rows, int[] columns, int n, int r, int c) {
+            for (int i = 0; i < n; i++) {
+                if (rows[i] == r && columns[i] == c) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
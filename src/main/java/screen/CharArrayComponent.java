@@ -24,11 +24,12 @@
 package screen;
 
 /**
- * Component to display a Char array
+ * Component to display a Char array. It is also a CellGrid, so an array
+ * larger than the screen can be shown through a ViewportComponent.
  * 
  * @author kaiyu
  */
-public class CharArrayComponent extends Component {
+public class CharArrayComponent extends Component implements CellGrid {
     char[][] array;
     
     /**
@@ -55,6 +56,22 @@ public class CharArrayComponent extends Component {
         this.array = array;
         super.setSizeY(array.length);
         super.setSizeX(array[0].length);
+        super.markDirty();
+    }
+    
+    @Override
+    public int getRows() {
+        return super.getSizeY();
+    }
+    
+    @Override
+    public int getColumns() {
+        return super.getSizeX();
+    }
+    
+    @Override
+    public DisplayCharacter getCell(int row, int column) {
+        return new DisplayCharacter(array[row][column], super.getDisplayAttr(row, column));
     }
     
     @Override
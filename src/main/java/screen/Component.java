@@ -54,6 +54,25 @@ abstract class Component {
      */
     ArrayList<SGR>[][] displayAttr;
     
+    /**
+     * Set when anything that changes the rendered output has changed since
+     * the last render. Screen only calls render() on dirty components and
+     * reuses lastRender for the others.
+     */
+    private boolean dirty = true;
+    private DisplayCharacter[][] lastRender;
+    
+    /**
+     * The screen the component has been added to, or null
+     */
+    Screen screen;
+    
+    /**
+     * Layer the component had when Screen placed it in its layer ordered
+     * list. If it differs from layer, Screen moves the component.
+     */
+    int sortedLayer;
+    
     /**
      * Default constructor. Used for components that can only set the values
      * after processing
@@ -88,6 +107,15 @@ abstract class Component {
         this.displayAttr = new ArrayList[sizeY][sizeX];
     }
     
+    /**
+     * Returns the screen the component has been added to
+     * 
+     * @return the screen, or null if the component isn't on a screen
+     */
+    public Screen getScreen() {
+        return screen;
+    }
+    
     public int getStartX() {
         return startX;
     }
@@ -96,6 +124,7 @@ abstract class Component {
         if (startX < 1)
             throw new IndexOutOfBoundsException("startX out of bounds");
         this.startX = startX;
+        markDirty();
     }
  
     public int getStartY() {
@@ -106,6 +135,7 @@ abstract class Component {
         if (startY < 1)
             throw new IndexOutOfBoundsException("startY out of bounds");
         this.startY = startY;
+        markDirty();
     }
 
     public int getSizeX() {
@@ -117,6 +147,7 @@ abstract class Component {
     public void setSizeX(int sizeX) {
         this.displayAttr = new ArrayList[this.sizeY][sizeX];
         this.sizeX = sizeX;
+        markDirty();
     }
 
     public int getSizeY() {
@@ -126,6 +157,7 @@ abstract class Component {
     public void setSizeY(int sizeY) {
         this.displayAttr = new ArrayList[sizeY][this.sizeX];
         this.sizeY = sizeY;
+        markDirty();
     }
 
     public int getLayer() {
@@ -134,6 +166,38 @@ abstract class Component {
 
     public void setLayer(int layer) {
         this.layer = layer;
+        markDirty();
+    }
+    
+    /**
+     * Marks the component as changed, so it is rendered again on the next
+     * Screen.render(). Mutators in this class and subclasses call this;
+     * code that changes the component in other ways (e.g. through the list
+     * returned by getDisplayAttr) needs to call it itself.
+     */
+    public void markDirty() {
+        this.dirty = true;
+    }
+    
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    /**
+     * Returns the output of render(), only calling it if the component is
+     * dirty. The returned array is reused until the component changes and
+     * must not be modified.
+     * 
+     * @return the rendered component
+     */
+    final DisplayCharacter[][] getRendered() {
+        if (dirty || lastRender == null) {
+            // render() may call mutators (e.g. clearAttr), so only clear the
+            // flag afterwards
+            lastRender = render();
+            dirty = false;
+        }
+        return lastRender;
     }
     
     /**
@@ -182,6 +246,7 @@ abstract class Component {
             this.displayAttr[row][col] = new ArrayList<>();
         }
         displayAttr[row][col].add(attr);
+        markDirty();
     }
     
     /**
@@ -202,6 +267,7 @@ abstract class Component {
      */
     public void clearAttr() {
         this.displayAttr = new ArrayList[sizeY][sizeX];
+        markDirty();
     }
     
     /**
@@ -212,6 +278,7 @@ abstract class Component {
      */
     public void clearAttr(int r, int c) {
         this.displayAttr[r][c] = new ArrayList<SGR>();
+        markDirty();
     }
 
     /**
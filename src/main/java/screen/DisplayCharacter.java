@@ -33,17 +33,28 @@ import java.util.ArrayList;
  */
 public class DisplayCharacter {
     final char character;
-    final ArrayList<SGR> displayAttr;
+    final SGRSequence attrs;
     
     /**
      * If displayAttr is null, it is passed onto Screen.render() and handled
-     * there (no display attributes).
+     * there (no display attributes). The attributes are copied into an
+     * SGRSequence, so changing the list afterwards doesn't affect this
+     * character.
      * 
      * @param character
      * @param displayAttr 
      */
     public DisplayCharacter(char character, ArrayList<SGR> displayAttr) {
+        this(character, SGRSequence.of(displayAttr));
+    }
+    
+    /**
+     * 
+     * @param character
+     * @param attrs the display attributes, or null for none
+     */
+    public DisplayCharacter(char character, SGRSequence attrs) {
         this.character = character;
-        this.displayAttr = displayAttr;
+        this.attrs = attrs == null ? SGRSequence.EMPTY : attrs;
     }
 }
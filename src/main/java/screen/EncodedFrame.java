@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+/**
+ * One encoded frame in a TerminalWriter's stream. Sinks write the same bytes
+ * without copying them. <br>
+ *
+ * Frames are recycled: when a frame leaves the writer's history, the next
+ * frame encoded is copied into it, unless a sink is still writing it. So once
+ * the history is full and every slot has grown to the size of a frame,
+ * encoding doesn't allocate.
+ *
+ * @author kaiyu
+ */
+final class EncodedFrame {
+    /*
+     * Only changed by the writer, with the writer lock held, while no sink is
+     * writing the frame
+     */
+
+    // Position in the stream, counting from 1
+    long sequence;
+
+    // The frame is the first length bytes
+    byte[] bytes = new byte[0];
+    int length;
+
+    /**
+     * True if the frame starts by clearing the screen and draws all of it, so
+     * a sink which doesn't know what it shows can start from here, and one
+     * which skips the frame has to redraw in full
+     */
+    boolean keyframe;
+
+    // Time of the oldest key press the frame shows the result of, or 0
+    long inputNanos;
+
+    // Number of sinks writing the frame. Guarded by the writer.
+    int readers;
+
+    /**
+     * Copies an encoded frame into this one. If bytes is too small, it's
+     * grown to the buffer's capacity, which only grows when a frame larger
+     * than any before is encoded, so frames are rarely grown twice.
+     *
+     * @param sequence
+     * @param buffer     the encoded frame
+     * @param keyframe
+     * @param inputNanos
+     */
+    void set(long sequence, OutputBuffer buffer, boolean keyframe, long inputNanos) {
+        this.sequence = sequence;
+        if (bytes.length < buffer.length()) {
+            this.bytes = new byte[buffer.capacity()];
+        }
+        buffer.copyTo(bytes);
+        this.length = buffer.length();
+        this.keyframe = keyframe;
+        this.inputNanos = inputNanos;
+    }
+}
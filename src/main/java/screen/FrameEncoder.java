@@ -0,0 +1,311 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.util.Arrays;
+
+/**
+ * Encodes frames as the changes from what the terminal shows. <br>
+ *
+ * The encoder keeps a copy of what it has sent to the terminal, and for each
+ * frame only writes the cells that differ. Before each run of changed cells
+ * it picks the cheapest way of getting the cursor there: an absolute cursor
+ * position, a relative move (up, down, forward, back), a carriage return, or
+ * writing over the few unchanged cells in between. Display attributes are only
+ * sent when they change from the previous cell written, instead of around
+ * every cell. <br>
+ *
+ * After each frame the cursor is parked at the start of the line below the
+ * screen, and that line is erased. Echoed key presses end up there rather
+ * than over the frame, so the screen needs one spare line below it. <br>
+ *
+ * Used by one thread at a time (the TerminalWriter thread, or a sink's
+ * thread for its own encoder).
+ *
+ * @author kaiyu
+ */
+final class FrameEncoder {
+    private static final byte[] CLRSCR = "\033[0m\033[2J\033[;H".getBytes();
+    private static final byte[] ERASE_LINE = "\033[K".getBytes();
+
+    // What a cell shows after the screen is cleared
+    private static final DisplayCharacter BLANK = new DisplayCharacter(' ', SGRSequence.EMPTY);
+
+    /**
+     * Longest run of unchanged cells written over instead of moving the
+     * cursor past them. Any longer and a cursor movement is always shorter.
+     */
+    private static final int MAX_OVERWRITE = 8;
+
+    private final int numLines;
+    private final int numColumns;
+
+    /**
+     * What the terminal shows. Only meaningful while valid is true.
+     */
+    private final DisplayCharacter[][] shown;
+    private boolean valid;
+
+    // Cursor position, 0-based. cursorColumn is -1 when it isn't known.
+    private int cursorLine;
+    private int cursorColumn;
+
+    // Display attributes in effect for the next character written
+    private SGRSequence currentAttrs;
+
+    FrameEncoder(int numLines, int numColumns) {
+        this.numLines = numLines;
+        this.numColumns = numColumns;
+        this.shown = new DisplayCharacter[numLines][numColumns];
+        this.valid = false;
+    }
+
+    /**
+     * Forgets what the terminal shows, so the next frame is drawn in full.
+     * Call after anything else has been written to the terminal, such as a
+     * clear screen.
+     */
+    void invalidate() {
+        this.valid = false;
+    }
+
+    /**
+     * Encodes the changes from the last frame encoded into out. If nothing
+     * changed, nothing is written.
+     *
+     * @param frame the frame to draw, numLines x numColumns
+     * @param out
+     * @return the number of cells written
+     */
+    int encode(DisplayCharacter[][] frame, OutputBuffer out) {
+        boolean changed = false;
+        int cellsChanged = 0;
+        if (!valid) {
+            // Start from a blank screen
+            out.put(CLRSCR);
+            for (DisplayCharacter[] row : shown) {
+                Arrays.fill(row, BLANK);
+            }
+            this.cursorLine = 0;
+            this.cursorColumn = 0;
+            this.valid = true;
+            changed = true;
+        } else {
+            // Echoed key presses may have moved the cursor since the last
+            // frame
+            this.cursorColumn = -1;
+        }
+        this.currentAttrs = SGRSequence.EMPTY;
+
+        for (int r = 0; r < numLines; r++) {
+            DisplayCharacter[] row = frame[r];
+            DisplayCharacter[] shownRow = shown[r];
+            for (int c = 0; c < numColumns; c++) {
+                DisplayCharacter displayChar = row[c];
+                if (same(shownRow[c], displayChar)) continue;
+                moveTo(out, row, r, c);
+                putCell(out, displayChar);
+                shownRow[c] = displayChar;
+                changed = true;
+                cellsChanged++;
+            }
+        }
+
+        if (changed) {
+            finish(out);
+        }
+        return cellsChanged;
+    }
+
+    /**
+     * Sets what the terminal shows to a copy of frame, for a terminal which
+     * was sent the bytes another encoder made for the frame
+     *
+     * @param frame numLines x numColumns
+     */
+    void setShown(DisplayCharacter[][] frame) {
+        for (int r = 0; r < numLines; r++) {
+            System.arraycopy(frame[r], 0, shown[r], 0, numColumns);
+        }
+        this.valid = true;
+    }
+
+    /**
+     * Returns false if the terminal contents are unknown, in which case the
+     * next frame encoded clears the screen and is drawn in full
+     *
+     * @return true if the next frame is encoded as changes
+     */
+    boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Ends a frame: resets the display attributes, then parks the cursor on
+     * the erased line below the screen
+     */
+    private void finish(OutputBuffer out) {
+        if (!currentAttrs.isEmpty()) {
+            out.put(SGR.RESET.bytes());
+        }
+        Glyphs.putCursorPosition(out, numLines + 1, 1);
+        out.put(ERASE_LINE);
+    }
+
+    private static boolean same(DisplayCharacter a, DisplayCharacter b) {
+        // Attributes are interned, so comparing references is enough
+        return a == b || (a.character == b.character && a.attrs == b.attrs);
+    }
+
+    /**
+     * Writes the character, switching display attributes first if needed
+     */
+    private void putCell(OutputBuffer out, DisplayCharacter displayChar) {
+        if (displayChar.attrs != currentAttrs) {
+            // Attributes add up, so removing any needs a reset
+            if (!currentAttrs.isEmpty()) {
+                out.put(SGR.RESET.bytes());
+            }
+            out.put(displayChar.attrs.bytes);
+            this.currentAttrs = displayChar.attrs;
+        }
+        // Checks if the character is printable. If not, replace with a
+        // space.
+        if (Glyphs.isPrintable(displayChar.character)) {
+            Glyphs.putChar(out, displayChar.character);
+        } else {
+            out.put((byte) ' ');
+        }
+        this.cursorColumn++;
+        if (cursorColumn == numColumns) {
+            // Terminals differ in where the cursor is after writing the last
+            // column
+            this.cursorColumn = -1;
+        }
+    }
+
+    /**
+     * Moves the cursor to line, column the cheapest way
+     *
+     * @param out
+     * @param row    the frame's cells on line. Every cell before column has
+     *               already been written, so the terminal shows them.
+     * @param line
+     * @param column
+     */
+    private void moveTo(OutputBuffer out, DisplayCharacter[] row, int line, int column) {
+        if (cursorColumn < 0) {
+            Glyphs.putCursorPosition(out, line + 1, column + 1);
+            this.cursorLine = line;
+            this.cursorColumn = column;
+            return;
+        }
+        if (line == cursorLine && column == cursorColumn) {
+            return;
+        }
+
+        int verticalCost = line == cursorLine ? 0 : Glyphs.cursorMoveLength(Math.abs(line - cursorLine));
+
+        // Cheapest way along the line, after the vertical move
+        int horizontalCost;
+        char horizontal;
+        if (column > cursorColumn) {
+            horizontalCost = Glyphs.cursorMoveLength(column - cursorColumn);
+            horizontal = 'C';
+            int overwriteCost = overwriteLength(row, cursorColumn, column);
+            if (overwriteCost >= 0 && overwriteCost < horizontalCost) {
+                horizontalCost = overwriteCost;
+                horizontal = 'O';
+            }
+        } else if (column < cursorColumn) {
+            horizontalCost = Glyphs.cursorMoveLength(cursorColumn - column);
+            horizontal = 'D';
+        } else {
+            horizontalCost = 0;
+            horizontal = 0;
+        }
+        int returnCost = 1 + (column == 0 ? 0 : Glyphs.cursorMoveLength(column));
+        if (returnCost < horizontalCost) {
+            horizontalCost = returnCost;
+            horizontal = '\r';
+        }
+
+        if (Glyphs.cursorPositionLength(line + 1, column + 1) <= verticalCost + horizontalCost) {
+            Glyphs.putCursorPosition(out, line + 1, column + 1);
+            this.cursorLine = line;
+            this.cursorColumn = column;
+            return;
+        }
+
+        if (line > cursorLine) {
+            Glyphs.putCursorMove(out, line - cursorLine, 'B');
+        } else if (line < cursorLine) {
+            Glyphs.putCursorMove(out, cursorLine - line, 'A');
+        }
+        this.cursorLine = line;
+
+        switch (horizontal) {
+            case 'C':
+                Glyphs.putCursorMove(out, column - cursorColumn, 'C');
+                break;
+            case 'D':
+                Glyphs.putCursorMove(out, cursorColumn - column, 'D');
+                break;
+            case 'O':
+                for (int c = cursorColumn; c < column; c++) {
+                    putCell(out, row[c]);
+                }
+                break;
+            case '\r':
+                out.put((byte) '\r');
+                if (column > 0) {
+                    Glyphs.putCursorMove(out, column, 'C');
+                }
+                break;
+            default:
+                break;
+        }
+        this.cursorColumn = column;
+    }
+
+    /**
+     * Returns the number of bytes needed to write over the cells from
+     * columns from to to (exclusive), or -1 if they can't be written without
+     * changing display attributes or there are too many
+     */
+    private int overwriteLength(DisplayCharacter[] row, int from, int to) {
+        if (to - from > MAX_OVERWRITE) {
+            return -1;
+        }
+        int length = 0;
+        for (int c = from; c < to; c++) {
+            if (row[c].attrs != currentAttrs) {
+                return -1;
+            }
+            char ch = row[c].character;
+            length += Glyphs.isPrintable(ch) ? Glyphs.charLength(ch) : 1;
+        }
+        return length;
+    }
+}
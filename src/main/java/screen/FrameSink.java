@@ -0,0 +1,424 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * One output of a TerminalWriter: the terminal itself, a recording file or
+ * a spectator connection. <br>
+ *
+ * Each sink writes on its own thread, so a slow sink never holds up the
+ * others. A sink which has only the newest frame left to write writes the
+ * writer's encoded frame, without copying it. A sink which is further behind
+ * never writes the frames in between: it writes the newest frame if that is
+ * a keyframe, and otherwise encodes the changes from what it last wrote
+ * straight to the newest frame, with its own FrameEncoder. The frames
+ * skipped are counted as dropped, and a slow sink so gets fewer bytes, not
+ * more. If a skipped frame cleared the screen, or the skipped frames have
+ * left the writer's history, the sink redraws the whole screen instead. A
+ * sink added late starts with a full redraw the same way. <br>
+ *
+ * The memory used per sink is its encoder's copy of what it shows, a copy of
+ * the newest frame and a buffer, however far behind it is.
+ *
+ * @author kaiyu
+ */
+public final class FrameSink {
+    private final TerminalWriter writer;
+    private final String name;
+    private final OutputStream out;
+
+    // The terminal sink keeps going after an error, and its stream isn't
+    // closed by close(). Other sinks are detached and closed.
+    private final boolean primary;
+
+    /*
+     * Used by the sink thread. encoder is also changed with writer held,
+     * while the sink isn't writing.
+     */
+
+    // What this sink's output shows, for encoding the changes to the newest
+    // frame when frames are skipped. Invalid when it isn't known.
+    private final FrameEncoder encoder;
+    // The newest frame, copied from the writer to be encoded
+    private final DisplayCharacter[][] frame;
+    private final OutputBuffer buffer;
+
+    /*
+     * Guarded by writer
+     */
+
+    // Sequence of the next frame to write. Frames before it have been
+    // written or skipped.
+    long next;
+    // True while a frame taken from the writer is being written
+    boolean writing;
+    boolean detached;
+    private IOException error;
+    private Thread thread;
+    private boolean started;
+
+    /*
+     * Statistics, written by the sink thread
+     */
+    private volatile long framesWritten;
+    private volatile long framesSkipped;
+    private volatile long keyframesWritten;
+    private volatile long bytesWritten;
+    private volatile long flushes;
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private volatile long totalFlushNanos;
+
+    FrameSink(TerminalWriter writer, String name, OutputStream out, boolean primary, long next,
+            int numLines, int numColumns) {
+        this.writer = writer;
+        this.name = name;
+        this.out = out;
+        this.primary = primary;
+        this.next = next;
+        this.encoder = new FrameEncoder(numLines, numColumns);
+        this.frame = new DisplayCharacter[numLines][numColumns];
+        this.buffer = new OutputBuffer(numLines * (numColumns + 8));
+    }
+
+    /**
+     * Starts the sink thread, if it hasn't been started. Call with the writer
+     * lock held.
+     */
+    void start() {
+        if (started) return;
+        started = true;
+        thread = new Thread(this::run, "sink-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Stops writing to this sink and closes its stream. The terminal sink
+     * can't be closed; close the Screen (endwin()) instead.
+     *
+     * @throws IllegalStateException if this is the terminal sink
+     */
+    public void close() {
+        if (primary)
+            throw new IllegalStateException("The terminal sink is closed by the writer");
+        synchronized (writer) {
+            detached = true;
+            writer.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the error which stopped the sink and clears it
+     *
+     * @return the error, or null if there was none
+     */
+    IOException takeError() {
+        IOException ex = error;
+        error = null;
+        return ex;
+    }
+
+    /**
+     * Waits for the sink thread to finish, until the deadline
+     * (System.currentTimeMillis()) at the latest. Call with the writer lock
+     * held.
+     */
+    void awaitExit(long deadlineMillis) throws InterruptedException {
+        while (thread != null) {
+            long remaining = deadlineMillis - System.currentTimeMillis();
+            if (remaining <= 0) return;
+            writer.wait(remaining);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            // The writer's encoded frame to write, or null to write buffer
+            EncodedFrame shared = null;
+            long sequence, skipped = 0, inputNanos = 0;
+            synchronized (writer) {
+                try {
+                    while (true) {
+                        if (detached) {
+                            exit();
+                            return;
+                        }
+                        long last = writer.lastSequence;
+                        if (next <= last) {
+                            EncodedFrame newest = writer.frameAt(last);
+                            skipped = last - next;
+                            inputNanos = oldestInput(last);
+                            if (newest.keyframe || (skipped == 0 && encoder.isValid())) {
+                                // The frame every sink gets redraws the
+                                // screen, or changes what this sink shows
+                                newest.readers++;
+                                shared = newest;
+                                if (writer.latestFrameSequence == last) {
+                                    encoder.setShown(writer.latestFrame);
+                                } else {
+                                    // Only clears the screen
+                                    encoder.invalidate();
+                                }
+                            } else {
+                                skipTo(last);
+                            }
+                            sequence = last;
+                            next = last + 1;
+                            writing = true;
+                            break;
+                        }
+                        if (writer.closed) {
+                            exit();
+                            return;
+                        }
+                        writer.wait();
+                    }
+                } catch (InterruptedException ex) {
+                    exit();
+                    return;
+                }
+            }
+
+            IOException failure;
+            if (shared != null) {
+                failure = write(shared, inputNanos, skipped, shared.keyframe);
+            } else {
+                boolean fullRedraw = !encoder.isValid();
+                buffer.reset();
+                encoder.encode(frame, buffer);
+                failure = write(null, inputNanos, skipped, fullRedraw);
+            }
+            long flushNanos = System.nanoTime();
+
+            synchronized (writer) {
+                if (primary && failure == null) {
+                    writer.flushed(sequence, flushNanos);
+                }
+                // The writer can reuse the frame now
+                if (shared != null) {
+                    shared.readers--;
+                }
+                writing = false;
+                if (failure != null) {
+                    error = failure;
+                    if (primary) {
+                        // The terminal may show part of a frame. Start again
+                        // from a full redraw.
+                        encoder.invalidate();
+                    } else {
+                        detached = true;
+                    }
+                }
+                writer.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the time of the oldest key press which the frames from next to
+     * last show the result of, or 0. Call with the writer lock held.
+     */
+    private long oldestInput(long last) {
+        long inputNanos = 0;
+        for (long s = Math.max(next, writer.oldestSequence()); s <= last; s++) {
+            inputNanos = KeyEvent.oldest(inputNanos, writer.frameAt(s).inputNanos);
+        }
+        return inputNanos;
+    }
+
+    /**
+     * Skips the frames from next to the newest, last. The newest frame is
+     * copied to be encoded from what this sink shows, which is forgotten if
+     * a skipped frame cleared the screen or can't be checked. Call with the
+     * writer lock held.
+     */
+    private void skipTo(long last) {
+        long oldest = writer.oldestSequence();
+        if (next < oldest) {
+            encoder.invalidate();
+        }
+        for (long s = Math.max(next, oldest); s < last; s++) {
+            if (writer.frameAt(s).keyframe) {
+                encoder.invalidate();
+            }
+        }
+        writer.copyLatestFrame(frame);
+    }
+
+    /**
+     * Writes and flushes the shared frame, or buffer if it's null. Nothing
+     * is written if buffer is empty, which it is when the frames skipped
+     * changed nothing in the end.
+     *
+     * @param shared     the writer's encoded frame, or null
+     * @param inputNanos time of the oldest key press shown, or 0
+     * @param skipped    number of frames skipped
+     * @param fullRedraw true if the whole screen is redrawn
+     * @return the error, or null if written
+     */
+    private IOException write(EncodedFrame shared, long inputNanos, long skipped, boolean fullRedraw) {
+        int length = shared != null ? shared.length : buffer.length();
+        framesSkipped += skipped;
+        if (length == 0) {
+            return null;
+        }
+        FlushEvent event = FlightRecorder.isInitialized() ? new FlushEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long start = System.nanoTime();
+        try {
+            if (shared != null) {
+                out.write(shared.bytes, 0, length);
+            } else {
+                buffer.writeTo(out);
+            }
+            out.flush();
+        } catch (IOException ex) {
+            return ex;
+        }
+        long end = System.nanoTime();
+        long elapsed = end - start;
+        if (primary) {
+            LatencyStats latency = writer.getLatency();
+            latency.write.record(elapsed);
+            if (inputNanos != 0) {
+                latency.endToEnd.record(end - inputNanos);
+            }
+        }
+        if (event != null && event.shouldCommit()) {
+            event.sink = name;
+            event.framesSkipped = skipped;
+            event.fullRedraw = fullRedraw;
+            event.bytes = length;
+            event.commit();
+        }
+        framesWritten++;
+        if (fullRedraw) {
+            keyframesWritten++;
+        }
+        bytesWritten += length;
+        flushes++;
+        lastFlushNanos = elapsed;
+        maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+        totalFlushNanos += elapsed;
+        return null;
+    }
+
+    /**
+     * Returns the memory used by the sink's copies of the screen and its
+     * buffer, in bytes
+     *
+     * @return the estimated size in bytes
+     */
+    long getBufferBytes() {
+        long frameBytes = 16 + frame.length * (16 + 4L * frame[0].length);
+        return 2 * frameBytes + 32 + buffer.capacity();
+    }
+
+    /**
+     * Removes the sink from the writer and closes its stream. Call with the
+     * writer lock held.
+     */
+    private void exit() {
+        writer.removeSink(this);
+        thread = null;
+        writer.notifyAll();
+        if (!primary) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                // Already gone
+            }
+        }
+    }
+
+    /**
+     * Returns the number of frames written to this sink. A frame written
+     * after skipping others counts once.
+     *
+     * @return frames written
+     */
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /**
+     * Returns the number of frames this sink skipped by falling more than a
+     * frame behind and writing only the newest
+     *
+     * @return frames skipped
+     */
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    /**
+     * Returns the number of keyframes (full redraws) written, to start, after
+     * the screen was cleared or to catch up
+     *
+     * @return keyframes written
+     */
+    public long getKeyframesWritten() {
+        return keyframesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns how long writing and flushing the last frame took, in
+     * nanoseconds
+     *
+     * @return the last flush latency
+     */
+    public long getLastFlushNanos() {
+        return lastFlushNanos;
+    }
+
+    public long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    /**
+     * Returns the mean time taken to write and flush a frame, in
+     * nanoseconds
+     *
+     * @return the mean flush latency, or 0 if nothing has been written
+     */
+    public long getMeanFlushNanos() {
+        long n = flushes;
+        return n == 0 ? 0 : totalFlushNanos / n;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+/**
+ * Lookup tables and encoders for the characters written to the terminal. <br>
+ *
+ * Which characters are printable is decided once, when the class is loaded,
+ * so Screen.refresh() only does an array lookup per cell. The printable set
+ * is what the keyboard can type (letters, digits and ASCII punctuation), plus
+ * the box drawing and block element ranges and a few symbols usable for mines
+ * and flags.
+ *
+ * @author kaiyu
+ */
+final class Glyphs {
+    // Indexed by char. true if the character can be written as is.
+    private static final boolean[] PRINTABLE = new boolean[Character.MAX_VALUE + 1];
+
+    /**
+     * Symbols outside the ranges below that are allowed to be printed
+     */
+    private static final char[] SYMBOLS = {
+        '\u00B7', // middle dot
+        '\u25A0', '\u25A1', // black and white square
+        '\u25CF', '\u25CB', // black and white circle
+        '\u2690', '\u2691', // white and black flag
+        '\u2731', '\u2739', // heavy asterisk, twelve pointed star (mines)
+    };
+
+    static {
+        for (int ch = 0; ch <= Character.MAX_VALUE; ch++) {
+            PRINTABLE[ch] = Character.isLetterOrDigit((char) ch);
+        }
+        // ASCII punctuation, the same set as the \p{Punct} regex
+        for (char ch = '!'; ch <= '~'; ch++) {
+            if (!Character.isLetterOrDigit(ch)) {
+                PRINTABLE[ch] = true;
+            }
+        }
+        // Box drawing (U+2500 to U+257F) and block elements (U+2580 to U+259F)
+        for (char ch = '\u2500'; ch <= '\u259F'; ch++) {
+            PRINTABLE[ch] = true;
+        }
+        for (char ch : SYMBOLS) {
+            PRINTABLE[ch] = true;
+        }
+    }
+
+    private Glyphs() {}
+
+    /**
+     * Checks if the character is printable. Non printable characters are
+     * replaced with a space by Screen.refresh().
+     *
+     * @param ch
+     * @return true if the character can be printed
+     */
+    static boolean isPrintable(char ch) {
+        return PRINTABLE[ch];
+    }
+
+    /**
+     * Writes the UTF-8 encoding of ch into out. Surrogates aren't printable,
+     * so every printable character is at most 3 bytes.
+     *
+     * @param out
+     * @param ch
+     */
+    static void putChar(OutputBuffer out, char ch) {
+        if (ch < 0x80) {
+            out.put((byte) ch);
+        } else if (ch < 0x800) {
+            out.put((byte) (0xC0 | (ch >> 6)));
+            out.put((byte) (0x80 | (ch & 0x3F)));
+        } else {
+            out.put((byte) (0xE0 | (ch >> 12)));
+            out.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+            out.put((byte) (0x80 | (ch & 0x3F)));
+        }
+    }
+
+    /**
+     * Returns the number of bytes putChar() writes for ch
+     *
+     * @param ch
+     * @return 1 to 3
+     */
+    static int charLength(char ch) {
+        return ch < 0x80 ? 1 : ch < 0x800 ? 2 : 3;
+    }
+
+    /**
+     * Returns the number of decimal digits of a non-negative number
+     *
+     * @param n
+     * @return the number of digits
+     */
+    static int digits(int n) {
+        int digits = 1;
+        while (n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Writes a relative cursor movement control sequence (ESC[nX) into out,
+     * where direction is 'A' (up), 'B' (down), 'C' (forward) or 'D' (back)
+     *
+     * @param out
+     * @param n         number of cells to move, at least 1
+     * @param direction
+     */
+    static void putCursorMove(OutputBuffer out, int n, char direction) {
+        out.put((byte) '\033');
+        out.put((byte) '[');
+        if (n != 1) {
+            // 1 is the default
+            out.putInt(n);
+        }
+        out.put((byte) direction);
+    }
+
+    /**
+     * Returns the number of bytes putCursorMove() writes
+     *
+     * @param n
+     * @return the number of bytes
+     */
+    static int cursorMoveLength(int n) {
+        return n == 1 ? 3 : 3 + digits(n);
+    }
+
+    /**
+     * Returns the number of bytes putCursorPosition() writes
+     *
+     * @param line
+     * @param column
+     * @return the number of bytes
+     */
+    static int cursorPositionLength(int line, int column) {
+        return 4 + digits(line) + digits(column);
+    }
+
+    /**
+     * Writes the cursor position control sequence (ESC[r;cH) into out.
+     * Lines and columns are 1-based.
+     *
+     * @param out
+     * @param line
+     * @param column
+     */
+    static void putCursorPosition(OutputBuffer out, int line, int column) {
+        out.put((byte) '\033');
+        out.put((byte) '[');
+        out.putInt(line);
+        out.put((byte) ';');
+        out.putInt(column);
+        out.put((byte) 'H');
+    }
+}
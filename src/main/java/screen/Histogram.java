@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts recorded durations (in nanoseconds) in buckets, in the same way as
+ * an HDR histogram, so percentiles can be read at any time without keeping
+ * every value. <br>
+ *
+ * Values below 64 have a bucket each. Above that, every power of two is
+ * split into 32 buckets, so a value is only ever off by less than 1/32
+ * (about 3%) of itself, and the whole range up to 2^36 ns (over a minute)
+ * takes 1024 buckets, about 8 KB. Every screen keeps several, so the range
+ * is kept to what a frame or key press could take. Larger values are counted
+ * in the last bucket. The maximum is kept exactly. <br>
+ *
+ * Recording doesn't lock or allocate, and can be done from any thread.
+ *
+ * @author kaiyu
+ */
+public final class Histogram {
+    // Values below this have a bucket each
+    private static final int LINEAR = 64;
+    // Buckets per power of two above LINEAR
+    private static final int HALF = LINEAR / 2;
+    // Bits of a value kept in its bucket (HALF to LINEAR - 1)
+    private static final int KEPT_BITS = Integer.numberOfTrailingZeros(LINEAR);
+    // Number of powers of two above LINEAR
+    private static final int MAX_SHIFT = 30;
+    private static final int BUCKETS = LINEAR + MAX_SHIFT * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one value. Negative values are counted as 0.
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            // Another thread raised the maximum, check again
+        }
+    }
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        // Shift which leaves the top KEPT_BITS bits (HALF to LINEAR - 1)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (KEPT_BITS - 1);
+        if (shift > MAX_SHIFT) {
+            return BUCKETS - 1;
+        }
+        return LINEAR + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+    /**
+     * Returns the largest value counted in the bucket
+     */
+    private static long highestInBucket(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR) / HALF + 1;
+        long top = (bucket - LINEAR) % HALF + HALF;
+        return ((top + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the memory used by the histogram, in bytes. Assumes 4 byte
+     * references and 16 byte object/array headers.
+     *
+     * @return the size in bytes
+     */
+    static long getFootprintBytes() {
+        // The counts, the array object holding them, three AtomicLongs and
+        // the histogram
+        return 16 + 8L * BUCKETS + 16 + 3 * 24 + 32;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded
+     *
+     * @return the mean, or 0 if nothing has been recorded
+     */
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * Returns the value which percentile percent of the values are at or
+     * below, to within the bucket size
+     *
+     * @param percentile between 0 and 100
+     * @return the value, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestInBucket(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets every value recorded. Values recorded at the same time may or
+     * may not be kept.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Where key presses come from. <br>
+ *
+ * A source reads key presses on its own input thread once started, and
+ * passes each one to every listener in the order they were added. Listeners
+ * can be added and removed at any time, including from a listener. <br>
+ *
+ * TerminalInput reads the terminal (stdin) and is the default.
+ * NativeHookInput uses jnativehook, which sees key presses made in any
+ * window, and is only loaded if it's used.
+ *
+ * @author kaiyu
+ */
+public abstract class InputSource {
+    private final CopyOnWriteArrayList<KeyListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addKeyListener(KeyListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeKeyListener(KeyListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Passes the key press to every listener
+     *
+     * @param e
+     */
+    protected void dispatch(KeyEvent e) {
+        for (KeyListener listener : listeners) {
+            listener.keyPressed(e);
+        }
+    }
+
+    /**
+     * Starts reading key presses
+     *
+     * @throws IOException if the source can't be used
+     */
+    public abstract void start() throws IOException;
+
+    /**
+     * Stops reading key presses and gives back anything taken by start(),
+     * such as the terminal mode. Can be called more than once.
+     */
+    public abstract void close();
+}
@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A component the user interacts with to produce a result, such as a choice
+ * from a menu. <br>
+ *
+ * The result is a CompletableFuture which the component completes on the
+ * input thread as soon as the user is done, so callers can either block on
+ * it (get()) or attach a callback (thenAccept() etc) without polling. Code
+ * in callbacks runs on the input thread, so shouldn't block. If the widget is
+ * cancelled, the future is cancelled.
+ *
+ * @author kaiyu
+ * @param <T> the type of the result
+ */
+public interface Interactive<T> {
+    /**
+     * Returns the result of the interaction. The same future is returned
+     * every time.
+     *
+     * @return the future result
+     */
+    CompletableFuture<T> getResult();
+
+    /**
+     * Stops the interaction without a result. The result is cancelled, and
+     * the component stops taking input.
+     */
+    void cancel();
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+/**
+ * A key press, independent of where it was read from. <br>
+ *
+ * Letters and digits have the code of the upper case character, so 'd' and
+ * 'D' are both KeyEvent.D. The other keys have the constants below.
+ *
+ * @author kaiyu
+ */
+public final class KeyEvent {
+    public static final int ENTER = '\r';
+    public static final int ESCAPE = 0x1B;
+    public static final int SPACE = ' ';
+    public static final int UP = 0x100;
+    public static final int DOWN = 0x101;
+    public static final int RIGHT = 0x102;
+    public static final int LEFT = 0x103;
+
+    public static final int D = 'D';
+    public static final int F = 'F';
+    public static final int L = 'L';
+    public static final int Q = 'Q';
+
+    private final int keyCode;
+    private final long timeNanos;
+
+    /**
+     * @param keyCode   one of the constants, or an upper case letter or digit
+     * @param timeNanos System.nanoTime() when the key press was read
+     */
+    public KeyEvent(int keyCode, long timeNanos) {
+        this.keyCode = keyCode;
+        this.timeNanos = timeNanos;
+    }
+
+    public KeyEvent(int keyCode) {
+        this(keyCode, System.nanoTime());
+    }
+
+    public int getKeyCode() {
+        return keyCode;
+    }
+
+    /**
+     * Returns when the key press was read, in System.nanoTime() time
+     *
+     * @return the time in nanoseconds
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    /**
+     * Returns the older of two key press times, where 0 means no key press
+     *
+     * @param a
+     * @param b
+     * @return the older time, or 0 if both are 0
+     */
+    public static long oldest(long a, long b) {
+        if (a == 0) return b;
+        if (b == 0) return a;
+        return a - b < 0 ? a : b;
+    }
+
+    @Override
+    public String toString() {
+        switch (keyCode) {
+            case ENTER: return "ENTER";
+            case ESCAPE: return "ESCAPE";
+            case SPACE: return "SPACE";
+            case UP: return "UP";
+            case DOWN: return "DOWN";
+            case RIGHT: return "RIGHT";
+            case LEFT: return "LEFT";
+            default: return String.valueOf((char) keyCode);
+        }
+    }
+}
@@ -40,6 +40,9 @@ public class LTextComponent extends TextComponent {
      */
     @Override
     public void setText(String newText) {
+        // Nothing to do if the text is the same. Avoids marking the component
+        // dirty when the caller sets the text on every frame.
+        if (newText.equals(super.getText())) return;
         super.setSizeX(newText.length());
         super.setText(newText);
     }
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latency of each stage between a key press and the terminal showing the
+ * result. <br>
+ *
+ * A KeyEvent is timestamped when it is read. The program passes the time of
+ * the oldest key press a change was made for to Screen.requestRefresh(long),
+ * and it is carried with the snapshot, the frame handed to the writer and
+ * the encoded frame, until the terminal has been flushed. Frames which are
+ * replaced before being drawn pass their time on to the frame replacing
+ * them, so a dropped frame's key presses are counted when the next frame is
+ * shown. <br>
+ *
+ * The stages are:
+ * <ul>
+ * <li>INPUT_QUEUE: read until the program starts handling it</li>
+ * <li>UPDATE: handling the key presses, until the frame is requested</li>
+ * <li>RENDER: compositing a frame</li>
+ * <li>ENCODE: encoding a frame</li>
+ * <li>WRITE: writing and flushing frames to the terminal</li>
+ * <li>END_TO_END: key press read until the terminal has been flushed</li>
+ * </ul>
+ * The screen records RENDER to END_TO_END. INPUT_QUEUE and UPDATE are up to
+ * the program. <br>
+ *
+ * Each screen has its own stats by default. The histograms take about 50 KB
+ * per screen, so a process serving many screens can pass one LatencyStats to
+ * all of them instead, which records every screen's latency together.
+ *
+ * @author kaiyu
+ */
+public final class LatencyStats {
+    public static final String INPUT_QUEUE = "input queue";
+    public static final String UPDATE = "update";
+    public static final String RENDER = "render";
+    public static final String ENCODE = "encode";
+    public static final String WRITE = "write";
+    public static final String END_TO_END = "end to end";
+
+    // Used directly by the screen, writer and terminal sink
+    final Histogram render = new Histogram();
+    final Histogram encode = new Histogram();
+    final Histogram write = new Histogram();
+    final Histogram endToEnd = new Histogram();
+
+    // Every stage in order
+    private final Map<String, Histogram> stages;
+
+    public LatencyStats() {
+        LinkedHashMap<String, Histogram> map = new LinkedHashMap<>();
+        map.put(INPUT_QUEUE, new Histogram());
+        map.put(UPDATE, new Histogram());
+        map.put(RENDER, render);
+        map.put(ENCODE, encode);
+        map.put(WRITE, write);
+        map.put(END_TO_END, endToEnd);
+        this.stages = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Returns the histogram of a stage
+     *
+     * @param stage one of the stage constants
+     * @return the histogram
+     * @throws IllegalArgumentException if there is no such stage
+     */
+    public Histogram get(String stage) {
+        Histogram histogram = stages.get(stage);
+        if (histogram == null)
+            throw new IllegalArgumentException("No stage " + stage);
+        return histogram;
+    }
+
+    /**
+     * Returns every stage's histogram, in the order of the stages
+     *
+     * @return the histograms by stage name
+     */
+    public Map<String, Histogram> getStages() {
+        return stages;
+    }
+
+    /**
+     * Returns the memory used by the histograms and the map of stages, in
+     * bytes
+     *
+     * @return the estimated size in bytes
+     */
+    long getFootprintBytes() {
+        // The map is about 40 bytes per entry plus its table and wrapper
+        return stages.size() * (Histogram.getFootprintBytes() + 40) + 128;
+    }
+
+    public void reset() {
+        for (Histogram histogram : stages.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Prints a table of the count, mean, percentiles and maximum of every
+     * stage, in milliseconds
+     *
+     * @param out
+     */
+    public void print(PrintStream out) {
+        out.println(String.format(
+            "%-12s %8s %9s %9s %9s %9s %9s",
+            "stage (ms)", "count", "mean", "p50", "p99", "p99.9", "max"
+        ));
+        for (Map.Entry<String, Histogram> stage : stages.entrySet()) {
+            Histogram h = stage.getValue();
+            out.println(String.format(
+                "%-12s %8d %9.3f %9.3f %9.3f %9.3f %9.3f",
+                stage.getKey(),
+                h.getCount(),
+                h.getMean() / 1e6,
+                h.getValueAtPercentile(50) / 1e6,
+                h.getValueAtPercentile(99) / 1e6,
+                h.getValueAtPercentile(99.9) / 1e6,
+                h.getMax() / 1e6
+            ));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import com.github.kwhat.jnativehook.GlobalScreen;
+import com.github.kwhat.jnativehook.NativeHookException;
+import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
+import com.github.kwhat.jnativehook.keyboard.NativeKeyListener;
+import java.io.IOException;
+
+/**
+ * Reads key presses with jnativehook. <br>
+ *
+ * This sees key presses made in any window, not just the terminal, and
+ * needs X11 under Linux. Loading the native library makes starting slower
+ * than TerminalInput. Only this class uses jnativehook, so it isn't needed
+ * unless this class is used. Create it with create(), which is typed as
+ * InputSource, so that loading a class which calls it doesn't load this one
+ * (and jnativehook) until it is called.
+ *
+ * @author kaiyu
+ */
+public final class NativeHookInput extends InputSource implements NativeKeyListener {
+    // jnativehook key codes of A to Z and 0 to 9, in order
+    private static final int[] LETTER_CODES = {
+        NativeKeyEvent.VC_A, NativeKeyEvent.VC_B, NativeKeyEvent.VC_C, NativeKeyEvent.VC_D,
+        NativeKeyEvent.VC_E, NativeKeyEvent.VC_F, NativeKeyEvent.VC_G, NativeKeyEvent.VC_H,
+        NativeKeyEvent.VC_I, NativeKeyEvent.VC_J, NativeKeyEvent.VC_K, NativeKeyEvent.VC_L,
+        NativeKeyEvent.VC_M, NativeKeyEvent.VC_N, NativeKeyEvent.VC_O, NativeKeyEvent.VC_P,
+        NativeKeyEvent.VC_Q, NativeKeyEvent.VC_R, NativeKeyEvent.VC_S, NativeKeyEvent.VC_T,
+        NativeKeyEvent.VC_U, NativeKeyEvent.VC_V, NativeKeyEvent.VC_W, NativeKeyEvent.VC_X,
+        NativeKeyEvent.VC_Y, NativeKeyEvent.VC_Z
+    };
+    private static final int[] DIGIT_CODES = {
+        NativeKeyEvent.VC_0, NativeKeyEvent.VC_1, NativeKeyEvent.VC_2, NativeKeyEvent.VC_3,
+        NativeKeyEvent.VC_4, NativeKeyEvent.VC_5, NativeKeyEvent.VC_6, NativeKeyEvent.VC_7,
+        NativeKeyEvent.VC_8, NativeKeyEvent.VC_9
+    };
+
+    private boolean registered;
+
+    private NativeHookInput() {
+    }
+
+    /**
+     * Returns a new source reading key presses with jnativehook
+     *
+     * @return the input source
+     */
+    public static InputSource create() {
+        return new NativeHookInput();
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (registered) return;
+        try {
+            GlobalScreen.registerNativeHook();
+        } catch (NativeHookException ex) {
+            throw new IOException("Unable to register the native hook", ex);
+        }
+        GlobalScreen.addNativeKeyListener(this);
+        this.registered = true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!registered) return;
+        GlobalScreen.removeNativeKeyListener(this);
+        try {
+            GlobalScreen.unregisterNativeHook();
+        } catch (NativeHookException ex) {
+            // Already unregistered
+        }
+        this.registered = false;
+    }
+
+    @Override
+    public void nativeKeyPressed(NativeKeyEvent e) {
+        long now = System.nanoTime();
+        int keyCode = toKeyCode(e.getKeyCode());
+        if (keyCode >= 0) {
+            dispatch(new KeyEvent(keyCode, now));
+        }
+    }
+
+    /**
+     * Returns the KeyEvent code for a jnativehook key code
+     *
+     * @param nativeCode
+     * @return the key code, or -1 for keys KeyEvent doesn't have
+     */
+    static int toKeyCode(int nativeCode) {
+        switch (nativeCode) {
+            case NativeKeyEvent.VC_UP: return KeyEvent.UP;
+            case NativeKeyEvent.VC_DOWN: return KeyEvent.DOWN;
+            case NativeKeyEvent.VC_RIGHT: return KeyEvent.RIGHT;
+            case NativeKeyEvent.VC_LEFT: return KeyEvent.LEFT;
+            case NativeKeyEvent.VC_ENTER: return KeyEvent.ENTER;
+            case NativeKeyEvent.VC_ESCAPE: return KeyEvent.ESCAPE;
+            case NativeKeyEvent.VC_SPACE: return KeyEvent.SPACE;
+            default: break;
+        }
+        for (int i = 0; i < LETTER_CODES.length; i++) {
+            if (LETTER_CODES[i] == nativeCode) return 'A' + i;
+        }
+        for (int i = 0; i < DIGIT_CODES.length; i++) {
+            if (DIGIT_CODES[i] == nativeCode) return '0' + i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer used to build a frame before writing it to the
+ * terminal in one call. The buffer is reused between frames, so once it has
+ * grown to the size of a frame, building the next one doesn't allocate.
+ *
+ * @author kaiyu
+ */
+final class OutputBuffer {
+    private byte[] buf;
+    private int length;
+
+    OutputBuffer(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+        this.length = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + extra));
+        }
+    }
+
+    void put(byte b) {
+        ensureCapacity(1);
+        buf[length++] = b;
+    }
+
+    void put(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Writes the decimal digits of a non-negative number
+     *
+     * @param n
+     */
+    void putInt(int n) {
+        if (n >= 10) {
+            putInt(n / 10);
+        }
+        put((byte) ('0' + n % 10));
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    /**
+     * Copies the contents to the start of dest, which must be at least
+     * length() bytes long
+     *
+     * @param dest
+     */
+    void copyTo(byte[] dest) {
+        System.arraycopy(buf, 0, dest, 0, length);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, length);
+    }
+}
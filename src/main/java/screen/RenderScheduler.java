@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces frame requests and draws them on render threads. <br>
+ *
+ * Input handlers call Screen.requestRefresh() instead of drawing the screen
+ * themselves. Requests made while a frame is pending are merged into it, and
+ * each screen is drawn at most once per interval, so a burst of key presses
+ * results in a few frames rather than one per key press. A request is drawn
+ * within one interval plus the time taken to draw the frame (and any frames
+ * of other screens due at the same time). <br>
+ *
+ * One scheduler can serve any number of screens. Each screen has a Ticket,
+ * which is queued by due time while a frame is pending, so an idle screen
+ * costs nothing but its ticket.
+ *
+ * @author kaiyu
+ */
+public final class RenderScheduler {
+    /**
+     * Draws one frame. Called on a render thread.
+     */
+    interface Frame {
+        void draw() throws Exception;
+    }
+
+    /**
+     * The scheduling state of one screen. At most one frame per ticket is
+     * queued at a time.
+     */
+    static final class Ticket implements Delayed {
+        private final Frame frame;
+        private final long intervalNanos;
+
+        // Set while the ticket is in the queue
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean cancelled;
+
+        // Only changed while the ticket isn't queued
+        private long dueNanos;
+        private volatile long lastFrameNanos;
+
+        /**
+         * @param frame the frame drawing function
+         * @param framesPerSecond the maximum number of frames drawn per second
+         */
+        Ticket(Frame frame, int framesPerSecond) {
+            if (framesPerSecond <= 0)
+                throw new IllegalArgumentException("framesPerSecond must be positive");
+            this.frame = frame;
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+            this.lastFrameNanos = System.nanoTime() - intervalNanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.signum(dueNanos - ((Ticket) other).dueNanos);
+        }
+    }
+
+    private static RenderScheduler shared;
+
+    // Tickets with a frame pending, ordered by the time they may be drawn
+    private final DelayQueue<Ticket> queue = new DelayQueue<>();
+
+    /**
+     * Returns the scheduler shared by screens which aren't given one. It has
+     * a single render thread, started on first use.
+     *
+     * @return the shared scheduler
+     */
+    public static synchronized RenderScheduler shared() {
+        if (shared == null) {
+            shared = new RenderScheduler(1);
+        }
+        return shared;
+    }
+
+    /**
+     * Creates a scheduler drawing frames on numThreads render threads. A
+     * screen is never drawn by two threads at the same time.
+     *
+     * @param numThreads
+     */
+    public RenderScheduler(int numThreads) {
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(this::run, "render-" + i);
+            // Don't keep the program running because of the render thread
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Requests a frame for the ticket. Returns immediately.
+     *
+     * @param ticket
+     */
+    void request(Ticket ticket) {
+        if (ticket.cancelled) return;
+        if (ticket.scheduled.compareAndSet(false, true)) {
+            long now = System.nanoTime();
+            long due = ticket.lastFrameNanos + ticket.intervalNanos;
+            ticket.dueNanos = due - now < 0 ? now : due;
+            queue.add(ticket);
+        }
+    }
+
+    /**
+     * Stops drawing frames for the ticket. Pending requests are dropped.
+     *
+     * @param ticket
+     */
+    void cancel(Ticket ticket) {
+        ticket.cancelled = true;
+        queue.remove(ticket);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Ticket ticket = queue.take();
+                // Requests made from here on queue the next frame. Requests
+                // made before are drawn by this frame.
+                ticket.scheduled.set(false);
+                if (ticket.cancelled) continue;
+                
+                ticket.lastFrameNanos = System.nanoTime();
+                try {
+                    ticket.frame.draw();
+                } catch (Exception ex) {
+                    // There is nowhere to report this to. Keep drawing
+                    // later frames rather than killing the render thread.
+                    ex.printStackTrace();
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Exit the thread
+        }
+    }
+}
@@ -54,8 +54,12 @@ public enum SGR {
     
     final int n;
     
+    // Encoded control sequence, so it isn't rebuilt for every use
+    private final byte[] bytes;
+    
     private SGR(int n) {
         this.n = n;
+        this.bytes = ("\033[" + n + "m").getBytes();
     }
     
     @Override
@@ -68,7 +72,15 @@ public enum SGR {
     }
     
     public byte[] getBytes() {
-        return toString().getBytes();
+        return bytes.clone();
+    }
+    
+    /**
+     * Returns the cached control sequence without copying. Must not be
+     * modified.
+     */
+    byte[] bytes() {
+        return bytes;
     }
 
     public boolean equals(SGR other) {
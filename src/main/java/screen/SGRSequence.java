@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable, ordered combination of display attributes along with its
+ * encoded control sequence. <br>
+ *
+ * Sequences are interned in a tree keyed by SGR ordinal, so looking up a
+ * combination that has been seen before walks a few array slots and doesn't
+ * allocate. The bytes are encoded once, as a single "ESC[a;b;cm" sequence,
+ * when the combination is first seen.
+ *
+ * @author kaiyu
+ */
+public final class SGRSequence {
+    /**
+     * The empty sequence (no display attributes). Encodes to zero bytes.
+     */
+    public static final SGRSequence EMPTY = new SGRSequence(new SGR[0]);
+
+    private final SGR[] attrs;
+
+    // Encoded control sequence, shared by every DisplayCharacter using this
+    // combination. Never modified after construction.
+    final byte[] bytes;
+
+    // Children in the intern tree, indexed by SGR ordinal. Filled lazily.
+    private final SGRSequence[] children = new SGRSequence[SGR.values().length];
+
+    private SGRSequence(SGR[] attrs) {
+        this.attrs = attrs;
+        this.bytes = encode(attrs);
+    }
+
+    private static byte[] encode(SGR[] attrs) {
+        if (attrs.length == 0) {
+            return new byte[0];
+        }
+        StringBuilder sb = new StringBuilder("\033[");
+        for (int i = 0; i < attrs.length; i++) {
+            if (i > 0) sb.append(';');
+            sb.append(attrs[i].n);
+        }
+        sb.append('m');
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the interned sequence for the list of attributes. Null elements
+     * are skipped, and a null or empty list returns EMPTY.
+     *
+     * @param displayAttr the attributes, in the order they are applied
+     * @return the interned SGRSequence
+     */
+    public static SGRSequence of(List<SGR> displayAttr) {
+        SGRSequence node = EMPTY;
+        if (displayAttr == null) {
+            return node;
+        }
+        for (int i = 0; i < displayAttr.size(); i++) {
+            SGR a = displayAttr.get(i);
+            if (a != null) {
+                node = node.append(a);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns the interned sequence for the attributes given
+     *
+     * @param displayAttr the attributes, in the order they are applied
+     * @return the interned SGRSequence
+     */
+    public static SGRSequence of(SGR... displayAttr) {
+        SGRSequence node = EMPTY;
+        for (SGR a : displayAttr) {
+            if (a != null) {
+                node = node.append(a);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns the interned sequence of this sequence followed by attr
+     *
+     * @param attr
+     * @return the interned SGRSequence
+     */
+    public SGRSequence append(SGR attr) {
+        SGRSequence child = children[attr.ordinal()];
+        if (child == null) {
+            // Only synchronize on a miss. The fields of SGRSequence are final,
+            // so a child seen through a racy read is always fully constructed.
+            synchronized (this) {
+                child = children[attr.ordinal()];
+                if (child == null) {
+                    SGR[] childAttrs = Arrays.copyOf(attrs, attrs.length + 1);
+                    childAttrs[attrs.length] = attr;
+                    child = new SGRSequence(childAttrs);
+                    children[attr.ordinal()] = child;
+                }
+            }
+        }
+        return child;
+    }
+
+    public boolean isEmpty() {
+        return attrs.length == 0;
+    }
+
+    public int size() {
+        return attrs.length;
+    }
+
+    public SGR get(int i) {
+        return attrs[i];
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
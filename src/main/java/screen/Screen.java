@@ -25,10 +25,10 @@ package screen;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
+import jdk.jfr.FlightRecorder;
 
 /**
  *
@@ -38,42 +38,224 @@ import java.util.regex.Pattern;
  * Inspired by the curses library found in C
  * Everything printed onto the terminal is a component, which is rendered layer
  * by layer
+ * 
+ * Each Screen draws to its own output stream with its own size, components
+ * and frame buffers, so one process can drive many terminals. Encoded glyphs
+ * and display attributes (Glyphs, SGRSequence) are shared between screens,
+ * and so is the render thread (RenderScheduler.shared()).
+ * 
+ * Threads: components are changed by input handlers and the main thread, while
+ * frames are drawn on the render thread. Changes to components should be made
+ * while holding getLock(). requestRefresh() takes an immutable Snapshot of the
+ * components on the calling thread, and the render thread composites and draws
+ * the latest snapshot without taking that lock, so drawing never blocks input
+ * handlers.
  */
 public class Screen {
-    private static final OutputStream stdout = System.out;
-    private static final InputStream stdin = System.in;
+    // Control sequences written on every refresh, encoded once
+    private static final byte[] INITSCR = "\033[2J\033[1;1H".getBytes();
+    private static final byte[] CLRSCR = "\033[0m\033[2J\033[;H".getBytes();
+    
+    // Default maximum frames per second drawn by requestRefresh()
+    public static final int DEFAULT_FRAMES_PER_SECOND = 60;
+    
+    // Used for cells no component covers
+    private static final DisplayCharacter BLANK = new DisplayCharacter(' ', SGRSequence.EMPTY);
+    
+    /**
+     * Writes frames to the terminal on its own thread. Everything sent to the
+     * terminal goes through it, so frames and control sequences are written
+     * in order.
+     */
+    private final TerminalWriter writer;
     
     // Number of lines/columns usable in the terminal
-    private static int numLines;
-    private static int numColumns;
+    private final int numLines;
+    private final int numColumns;
     
     /**
-     * List of components to be rendered
+     * Lock for changing components and taking snapshots. Code which changes
+     * components should hold this while making changes, so a snapshot never
+     * has a half made change. The render thread doesn't use this lock.
+     */
+    private final Object lock = new Object();
+    
+    /**
+     * Lock for compositing and writing to the terminal. Held by the render
+     * thread while drawing a frame, and by refresh()/clrscr() when called
+     * from other threads.
+     */
+    private final Object renderLock = new Object();
+    
+    /**
+     * Draws frames requested by requestRefresh() on the render thread
+     */
+    private final RenderScheduler scheduler;
+    
+    // Scheduling state of this screen, used by scheduler
+    final RenderScheduler.Ticket ticket;
+    
+    // Set by endwin(). No more frames are drawn after this.
+    private volatile boolean ended;
+    
+    // Number of frames composited and handed to the writer
+    private volatile long framesRendered;
+    
+    // False if the latency stats are shared with other screens, so they
+    // aren't counted in this screen's footprint
+    private final boolean ownLatency;
+    
+    /**
+     * Components to be rendered, ordered by layer (lowest first).
+     * Components on the same layer keep the order they were added in.
+     * The array is copy on write: changes replace it (with lock held) and
+     * never modify it, so it can be read at any time without the lock.
      * It is expected of the main class to remove any components which do not
      * need to be rendered in the next refresh
      * For components like SelectionComponent, the main class should keep a
      * separate reference to the component, so that it can read it after it has
      * been removed from this list
      */
-    private static ArrayList<Component> components;
+    private volatile Component[] components = new Component[0];
+    
+    // Sequence number of the last snapshot taken. Guarded by lock.
+    private long snapshotSequence;
+    
+    /**
+     * The latest snapshot taken by requestRefresh() which hasn't been drawn
+     * yet. Older snapshots are replaced without being drawn.
+     */
+    private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+    
+    /*
+     * Everything below is only used with renderLock held
+     */
+    
+    /**
+     * The snapshot the frame was last composited from. null if the frame
+     * needs to be composited from scratch.
+     */
+    private Snapshot drawn;
+    
+    /**
+     * The composited screen from the last render. Only the damaged parts
+     * are recomposited on the next render.
+     */
+    private final DisplayCharacter[][] frame;
+    
+    /**
+     * Damaged area of each line, as a range of 0-based columns from
+     * damageStart (inclusive) to damageEnd (exclusive). A line is undamaged
+     * when damageStart >= damageEnd.
+     */
+    private final int[] damageStart;
+    private final int[] damageEnd;
+    private boolean damaged;
+    
+    /**
+     * Columns of the line being composited which are not yet covered by a
+     * higher layer, as ranges from gapStart (inclusive) to gapEnd (exclusive).
+     * The next* arrays are used to build the ranges left after a component.
+     * Each component splits a range into at most two, so the arrays hold
+     * components.length + 1 ranges.
+     */
+    private int[] gapStart = new int[4], gapEnd = new int[4];
+    private int[] nextGapStart = new int[4], nextGapEnd = new int[4];
+    
+    /**
+     * Creates a screen drawing to out. Nothing is written until initscr() or
+     * a refresh.
+     * 
+     * @param out             the terminal output
+     * @param nl              number of lines
+     * @param nc              number of columns
+     * @param framesPerSecond maximum frames per second for requestRefresh()
+     * @param scheduler       the scheduler to draw requested frames with
+     */
+    public Screen(OutputStream out, int nl, int nc, int framesPerSecond, RenderScheduler scheduler) {
+        this(out, nl, nc, framesPerSecond, scheduler, null);
+    }
+    
+    /**
+     * Creates a screen drawing to out, recording latency in stats which may
+     * be shared with other screens. Nothing is written until initscr() or a
+     * refresh.
+     * 
+     * @param out             the terminal output
+     * @param nl              number of lines
+     * @param nc              number of columns
+     * @param framesPerSecond maximum frames per second for requestRefresh()
+     * @param scheduler       the scheduler to draw requested frames with
+     * @param latency         the latency stats to record in, or null for the
+     *                        screen to have its own
+     */
+    public Screen(OutputStream out, int nl, int nc, int framesPerSecond, RenderScheduler scheduler, LatencyStats latency) {
+        if (nl < 1 || nc < 1)
+            throw new IllegalArgumentException("Screen needs at least one line and column");
+        this.numLines = nl;
+        this.numColumns = nc;
+        this.ownLatency = latency == null;
+        this.writer = new TerminalWriter(out, nl, nc, ownLatency ? new LatencyStats() : latency);
+        this.frame = new DisplayCharacter[nl][nc];
+        this.damageStart = new int[nl];
+        this.damageEnd = new int[nl];
+        this.scheduler = scheduler;
+        this.ticket = new RenderScheduler.Ticket(this::drawRequestedFrame, framesPerSecond);
+    }
+    
+    public Screen(OutputStream out, int nl, int nc) {
+        this(out, nl, nc, DEFAULT_FRAMES_PER_SECOND, RenderScheduler.shared());
+    }
 
     /**
-     * Initializes the screen by clearing it and moving the cursor to the origin
-     * Also initializes attributes
-     * Does not return anything
+     * Creates a screen on stdout, then initializes it by clearing it and
+     * moving the cursor to the origin
      * 
      * @param nl
      * @param nc
+     * @return the screen
      * @throws java.io.IOException
      */
-    public static void initscr(int nl, int nc) throws IOException {
-        stdout.write("\033[2J\033[1;1H".getBytes());
-        stdout.flush();
-        
-        components = new ArrayList();
-        
-        numLines = nl;
-        numColumns = nc;
+    public static Screen initscr(int nl, int nc) throws IOException {
+        Screen screen = new Screen(System.out, nl, nc);
+        screen.initscr();
+        return screen;
+    }
+    
+    /**
+     * Initializes the screen by clearing it and moving the cursor to the origin
+     * 
+     * @throws java.io.IOException
+     */
+    public void initscr() throws IOException {
+        synchronized (renderLock) {
+            writeControl(INITSCR);
+            drawn = null;
+        }
+    }
+    
+    /**
+     * Stops drawing frames and clears the screen. Call this before exiting,
+     * so a frame being drawn isn't printed after the screen has been cleared.
+     * 
+     * @throws java.io.IOException 
+     */
+    public void endwin() throws IOException {
+        ended = true;
+        scheduler.cancel(ticket);
+        clrscr();
+        // Wait for the clear to be written before anything else is printed
+        writer.close();
+    }
+    
+    /**
+     * Returns the lock to hold while changing components. Holding it doesn't
+     * block the render thread.
+     * 
+     * @return the screen lock
+     */
+    public Object getLock() {
+        return lock;
     }
     
     /**
@@ -81,9 +263,13 @@ public class Screen {
      * 
      * @throws java.io.IOException
      */
-    public static void clrscr() throws IOException {
-        stdout.write("\033[0m\033[2J\033[;H".getBytes());
-        stdout.flush();
+    public void clrscr() throws IOException {
+        synchronized (renderLock) {
+            writeControl(CLRSCR);
+            // The terminal no longer shows the frame, so the next one has to
+            // be composited in full
+            drawn = null;
+        }
     }
     
     /**
@@ -91,8 +277,74 @@ public class Screen {
      * 
      * @return number of lines
      */
-    public static int getNumLines() {
-        return 0;
+    public int getNumLines() {
+        return numLines;
+    }
+    
+    /**
+     * Returns the number of columns in the terminal
+     * 
+     * @return number of columns
+     */
+    public int getNumColumns() {
+        return numColumns;
+    }
+    
+    /**
+     * Returns the writer frames are written to the terminal with. Its counts
+     * show how many frames a slow terminal caused to be dropped.
+     * 
+     * @return the terminal writer
+     */
+    public TerminalWriter getWriter() {
+        return writer;
+    }
+    
+    /**
+     * Returns the number of frames drawn (composited and handed to the
+     * writer)
+     * 
+     * @return frames rendered
+     */
+    public long getFramesRendered() {
+        return framesRendered;
+    }
+    
+    /**
+     * Returns the latency of each stage between key presses and the terminal
+     * 
+     * @return the latency stats
+     */
+    public LatencyStats getLatency() {
+        return writer.getLatency();
+    }
+    
+    /**
+     * Waits until everything drawn so far has been written to the terminal
+     * 
+     * @throws IOException 
+     */
+    public void flush() throws IOException {
+        writer.flush();
+    }
+    
+    /**
+     * Estimates the memory used by this screen, in bytes: the frame, output
+     * buffers, latency histograms and bookkeeping arrays. Components,
+     * snapshots, latency stats passed to the constructor and the caches
+     * shared between screens aren't counted. Assumes 4 byte references and
+     * 16 byte object/array headers.
+     * 
+     * @return the estimated size in bytes
+     */
+    public long getFootprintBytes() {
+        long frameBytes = 16 + numLines * (4 + 16 + 4L * numColumns);
+        long damageBytes = 2 * (16 + 4L * numLines);
+        long gapBytes = 4 * (16 + 4L * gapStart.length);
+        // Screen, ticket and lock objects
+        long objectBytes = 96 + 48 + 2 * 16;
+        long latencyBytes = ownLatency ? writer.getLatency().getFootprintBytes() : 0;
+        return frameBytes + damageBytes + gapBytes + writer.getBufferBytes() + latencyBytes + objectBytes;
     }
     
     /**
@@ -102,21 +354,32 @@ public class Screen {
      * @param c
      * @throws IndexOutOfBoundsException
      */
-    public static void addComponent(Component c) throws IndexOutOfBoundsException {
+    public void addComponent(Component c) throws IndexOutOfBoundsException {
         // Check if the component stays within numLines and numColumns
         if (c.getStartX() + c.getSizeX() > numColumns
                 || c.getStartY() + c.getSizeY() > numLines)
             throw new IndexOutOfBoundsException("Component's position exceeds limits");
         
-        components.add(c);
+        synchronized (lock) {
+            if (c.screen != null && c.screen != this)
+                throw new IllegalStateException("Component is on another screen");
+            components = insertByLayer(components, c);
+            c.screen = this;
+        }
     }
     /**
      * Removes a component from `components` list by its index
      * 
      * @param cIndex
      */
-    public static void removeComponent(int cIndex) {
-        components.remove(cIndex);
+    public void removeComponent(int cIndex) {
+        synchronized (lock) {
+            Component[] old = components;
+            if (cIndex < 0 || cIndex >= old.length)
+                throw new IndexOutOfBoundsException("No component at index " + cIndex);
+            old[cIndex].screen = null;
+            components = remove(old, cIndex);
+        }
     }
     
     /**
@@ -124,114 +387,386 @@ public class Screen {
      * 
      * @param c 
      */
-    public static void removeComponent(Component c) throws NoSuchElementException {
-        for (int i = 0; i < components.size(); i++) {
-            if (components.get(i) == c) {
-                components.remove(i);
-                return;
+    public void removeComponent(Component c) throws NoSuchElementException {
+        synchronized (lock) {
+            Component[] old = components;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] == c) {
+                    c.screen = null;
+                    components = remove(old, i);
+                    return;
+                }
             }
         }
         throw new NoSuchElementException();
     }
     
-    public static ArrayList<Component> getComponents() {
-        return components;
+    /**
+     * Returns a copy of the component list, ordered by layer. Safe to call
+     * from any thread.
+     * 
+     * @return the components
+     */
+    public ArrayList<Component> getComponents() {
+        return new ArrayList<>(Arrays.asList(components));
+    }
+    
+    public void clearComponents() {
+        synchronized (lock) {
+            for (Component c : components) {
+                c.screen = null;
+            }
+            components = new Component[0];
+        }
     }
     
-    public static void clearComponents() {
-        components.clear();
+    /**
+     * Returns a copy of the array with c inserted after every component with
+     * a layer lower or equal to its own
+     * 
+     * @param array
+     * @param c
+     * @return the new array
+     */
+    private static Component[] insertByLayer(Component[] array, Component c) {
+        int i = array.length;
+        while (i > 0 && array[i - 1].getLayer() > c.getLayer()) {
+            i--;
+        }
+        Component[] result = new Component[array.length + 1];
+        System.arraycopy(array, 0, result, 0, i);
+        result[i] = c;
+        System.arraycopy(array, i, result, i + 1, array.length - i);
+        c.sortedLayer = c.getLayer();
+        return result;
+    }
+    
+    private static Component[] remove(Component[] array, int index) {
+        Component[] result = new Component[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+    
+    /**
+     * Takes a snapshot of the components on the calling thread. Components
+     * whose layer changed since they were added are moved first.
+     * 
+     * @return the snapshot
+     */
+    private Snapshot takeSnapshot() {
+        synchronized (lock) {
+            Component[] current = components;
+            for (Component c : current) {
+                if (c.sortedLayer != c.getLayer()) {
+                    // Layer changes are rare, so rebuild the whole array
+                    Component[] sorted = new Component[0];
+                    for (Component s : current) {
+                        sorted = insertByLayer(sorted, s);
+                    }
+                    components = current = sorted;
+                    break;
+                }
+            }
+            return new Snapshot(++snapshotSequence, current);
+        }
     }
     
     /**
      * Renders components and outputs the result as an array of Strings.
-     * Screen.refresh() calls this.
+     * Screen.refresh() calls this. <br>
+     * 
+     * Only components which are dirty are rendered again, and only the area
+     * that changed since the last render is recomposited. Each damaged line
+     * is composited from the highest layer down, so cells hidden by a higher
+     * layer are never copied, and a component which is entirely hidden isn't
+     * copied at all.
+     * The returned array is reused between calls and must not be modified.
      * 
      * @return a DisplayCharacter[][] array for Screen.refresh() to draw
      */    
-    public static DisplayCharacter[][] render() {
-        DisplayCharacter[][] result = new DisplayCharacter[numLines][numColumns];
+    public DisplayCharacter[][] render() {
+        Snapshot snapshot = takeSnapshot();
+        synchronized (renderLock) {
+            composite(snapshot);
+            return frame;
+        }
+    }
+    
+    /**
+     * Composites the snapshot into frame. Must hold renderLock.
+     * 
+     * @param snapshot 
+     * @return the number of cells in the damaged area composited
+     */
+    private int composite(Snapshot snapshot) {
+        damageChanges(drawn, snapshot);
+        drawn = snapshot;
+        
+        if (!damaged) {
+            return 0;
+        }
+        int cells = 0;
+        
+        if (gapStart.length < snapshot.size() + 1) {
+            gapStart = new int[snapshot.size() + 1];
+            gapEnd = new int[snapshot.size() + 1];
+            nextGapStart = new int[snapshot.size() + 1];
+            nextGapEnd = new int[snapshot.size() + 1];
+        }
         
-        Collections.sort(
-            components,
-            (Component left, Component right) -> {
-                return left.getLayer() - right.getLayer();
+        for (int y = 0; y < numLines; y++) {
+            if (damageStart[y] >= damageEnd[y]) continue;
+            compositeLine(snapshot, y, damageStart[y], damageEnd[y]);
+            cells += damageEnd[y] - damageStart[y];
+            damageStart[y] = damageEnd[y] = 0;
+        }
+        damaged = false;
+        return cells;
+    }
+    
+    /**
+     * Damages the area which differs between two snapshots: components which
+     * were added, removed, moved or reordered, and the lines of components
+     * whose rendered output changed.
+     * 
+     * @param before the previously composited snapshot, or null to damage
+     *               the whole screen
+     * @param after 
+     */
+    private void damageChanges(Snapshot before, Snapshot after) {
+        if (before == null) {
+            damage(0, 0, numColumns, numLines);
+            return;
+        }
+        
+        for (int j = 0; j < before.size(); j++) {
+            if (after.indexOf(before.components[j], j) < 0) {
+                damage(before.x[j], before.y[j], before.sizeX[j], before.sizeY[j]);
             }
-        );
+        }
         
-        for (Component component : components) {
-            DisplayCharacter[][] renderedComponent = component.render();
+        // Index in before of the last component found. Components found at a
+        // lower index than this have been moved below another component.
+        int lastFound = -1;
+        for (int i = 0; i < after.size(); i++) {
+            int j = before.indexOf(after.components[i], i);
+            if (j < 0) {
+                damage(after.x[i], after.y[i], after.sizeX[i], after.sizeY[i]);
+                continue;
+            }
             
-            // Here startX and startY is 0-based since we're operating on an
-            // array. The start variables in the component is 1-based.
-            int startX = component.getStartX() - 1;
-            int startY = component.getStartY() - 1;
-            int sizeX = component.getSizeX();
-            int sizeY = component.getSizeY();
+            if (j < lastFound
+                    || before.x[j] != after.x[i] || before.y[j] != after.y[i]
+                    || before.sizeX[j] != after.sizeX[i] || before.sizeY[j] != after.sizeY[i]
+                    || before.layer[j] != after.layer[i]) {
+                damage(before.x[j], before.y[j], before.sizeX[j], before.sizeY[j]);
+                damage(after.x[i], after.y[i], after.sizeX[i], after.sizeY[i]);
+            } else if (before.rendered[j] != after.rendered[i]) {
+                // Same place, new output. Only damage the lines which aren't
+                // shared with the old output.
+                for (int r = 0; r < after.sizeY[i]; r++) {
+                    if (before.rendered[j][r] != after.rendered[i][r]) {
+                        damage(after.x[i], after.y[i] + r, after.sizeX[i], 1);
+                    }
+                }
+            }
+            lastFound = Math.max(lastFound, j);
+        }
+    }
+    
+    /**
+     * Adds a rectangle to the damaged area. Coordinates are 0-based, and the
+     * rectangle is clipped to the screen.
+     * 
+     * @param x
+     * @param y
+     * @param sizeX
+     * @param sizeY 
+     */
+    private void damage(int x, int y, int sizeX, int sizeY) {
+        int endX = Math.min(x + sizeX, numColumns);
+        int endY = Math.min(y + sizeY, numLines);
+        x = Math.max(x, 0);
+        if (x >= endX) return;
+        for (int r = Math.max(y, 0); r < endY; r++) {
+            if (damageStart[r] >= damageEnd[r]) {
+                damageStart[r] = x;
+                damageEnd[r] = endX;
+            } else {
+                damageStart[r] = Math.min(damageStart[r], x);
+                damageEnd[r] = Math.max(damageEnd[r], endX);
+            }
+            damaged = true;
+        }
+    }
+    
+    /**
+     * Composites columns spanStart to spanEnd (exclusive) of line y into
+     * frame, going from the highest layer down and stopping once every
+     * column is covered
+     * 
+     * @param snapshot
+     * @param y
+     * @param spanStart
+     * @param spanEnd 
+     */
+    private void compositeLine(Snapshot snapshot, int y, int spanStart, int spanEnd) {
+        int numGaps = 1;
+        gapStart[0] = spanStart;
+        gapEnd[0] = spanEnd;
+        
+        for (int i = snapshot.size() - 1; i >= 0 && numGaps > 0; i--) {
+            int startY = snapshot.y[i];
+            if (y < startY || y >= startY + snapshot.sizeY[i]) continue;
+            int startX = snapshot.x[i];
+            int endX = startX + snapshot.sizeX[i];
+            DisplayCharacter[] renderedRow = snapshot.rendered[i][y - startY];
             
-            for (int y = 0; y < sizeY; y++) {
-                for (int x = 0; x < sizeX; x++) {
-                    result[y + startY][x + startX] = renderedComponent[y][x];
+            int numNextGaps = 0;
+            for (int g = 0; g < numGaps; g++) {
+                int from = Math.max(gapStart[g], startX);
+                int to = Math.min(gapEnd[g], endX);
+                if (from >= to) {
+                    // Not covered by this component, keep the whole gap
+                    nextGapStart[numNextGaps] = gapStart[g];
+                    nextGapEnd[numNextGaps++] = gapEnd[g];
+                    continue;
+                }
+                
+                for (int x = from; x < to; x++) {
+                    DisplayCharacter displayChar = renderedRow[x - startX];
+                    frame[y][x] = displayChar == null ? BLANK : displayChar;
+                }
+                
+                // Whatever is left of the gap on either side
+                if (gapStart[g] < from) {
+                    nextGapStart[numNextGaps] = gapStart[g];
+                    nextGapEnd[numNextGaps++] = from;
+                }
+                if (to < gapEnd[g]) {
+                    nextGapStart[numNextGaps] = to;
+                    nextGapEnd[numNextGaps++] = gapEnd[g];
                 }
             }
+            
+            int[] swap = gapStart;
+            gapStart = nextGapStart;
+            nextGapStart = swap;
+            swap = gapEnd;
+            gapEnd = nextGapEnd;
+            nextGapEnd = swap;
+            numGaps = numNextGaps;
         }
         
         // Fill in the empty character cells as to avoid NullPointerException
-        for (int y = 0; y < numLines; y++) {
-            for (int x = 0; x < numColumns; x++) {
-                if (result[y][x] == null) {
-//                    System.out.println("null cell detected");
-                    result[y][x] = new DisplayCharacter(' ', null);
-                }
+        for (int g = 0; g < numGaps; g++) {
+            for (int x = gapStart[g]; x < gapEnd[g]; x++) {
+                frame[y][x] = BLANK;
             }
         }
-
-        return result;
     }
     
     /**
-     * Refreshes the screen.
+     * Requests a refresh of the screen and returns immediately. A snapshot of
+     * the components is taken on the calling thread, then drawn on the render
+     * thread. Snapshots taken close together are drawn as one frame (only the
+     * latest is drawn). Input handlers should use this rather than refresh().
+     */
+    public void requestRefresh() {
+        requestRefresh(0);
+    }
+    
+    /**
+     * Requests a refresh showing the result of key presses, for the latency
+     * stats. If the frame is replaced before it's drawn, the key presses are
+     * counted with the frame which replaces it.
+     * 
+     * @param inputNanos KeyEvent.getTimeNanos() of the oldest key press the
+     *                   changes were made for, or 0
+     */
+    public void requestRefresh(long inputNanos) {
+        if (ended) return;
+        Snapshot snapshot = takeSnapshot();
+        while (true) {
+            Snapshot replaced = pending.get();
+            snapshot.inputNanos = KeyEvent.oldest(inputNanos, replaced == null ? 0 : replaced.inputNanos);
+            if (pending.compareAndSet(replaced, snapshot)) break;
+        }
+        scheduler.request(ticket);
+    }
+    
+    private void drawRequestedFrame() throws IOException {
+        Snapshot snapshot = pending.getAndSet(null);
+        if (snapshot != null) {
+            draw(snapshot);
+        }
+    }
+    
+    /**
+     * Refreshes the screen immediately: the frame is composited and encoded
+     * on the calling thread, then written by the writer thread. Call flush()
+     * to wait for it to be written.
      * This should be done after every keystroke since echo is on
      * 
      * @throws java.io.IOException
      */
-    public static void refresh() throws IOException {
-        clrscr();
-        DisplayCharacter[][] screen = render();
-        // Rather than calling stdout.write() everytime, add everything to print
-        // to one String variable and print that out at the end. This might also
-        // have the positive effect of overwriting any echoed keypresses.
-        String toPrint = "";
-        
-        for (int r = 0; r < numLines; r++) {
-            toPrint += String.format("\033[%d;%dH", r + 1, 1);
-            for (int c = 0; c < numColumns; c++) {
-                DisplayCharacter displayChar = screen[r][c];
-                if (displayChar.displayAttr != null) {
-                    for (SGR a : displayChar.displayAttr) {
-                        if (a != null) {
-                            toPrint += a;
-                        }
-                    }
-                }
-                // Checks if the character is printable. If not, replace with a
-                // space. This also limits the printable characters to only
-                // those found on a keyboard.
-                // Reference: https://stackoverflow.com/questions/13925454/
-                if (Character.isLetterOrDigit(displayChar.character)
-                    || Pattern.matches("\\p{Punct}", String.valueOf(displayChar.character))) {
-                    toPrint += displayChar.character;
-                } else {
-                    toPrint += " ";
-                }
-
-                // Print the reset control sequence for every character.
-                // Although unnecessary for many characters, this is safer than
-                // checking if the next character doesn't have the attribute and
-                // printing the end attribute
-                toPrint += SGR.RESET;
+    public void refresh() throws IOException {
+        draw(takeSnapshot());
+    }
+    
+    /**
+     * Composites and writes the snapshot, unless a newer snapshot has
+     * already been drawn
+     * 
+     * @param snapshot
+     * @throws IOException 
+     */
+    private void draw(Snapshot snapshot) throws IOException {
+        synchronized (renderLock) {
+            if (ended || (drawn != null && drawn.sequence > snapshot.sequence)) {
+                return;
+            }
+            // The event class is only loaded when the flight recorder is
+            // up; loading it otherwise starts JFR, which delays the first frame
+            RenderEvent event = FlightRecorder.isInitialized() ? new RenderEvent() : null;
+            if (event != null) {
+                event.begin();
             }
+            long start = System.nanoTime();
+            int cellsComposited = composite(snapshot);
+            framesRendered++;
+            writer.getLatency().render.record(System.nanoTime() - start);
+            if (event != null && event.shouldCommit()) {
+                event.lines = numLines;
+                event.components = snapshot.size();
+                event.cellsComposited = cellsComposited;
+                event.commit();
+            }
+            write(frame, snapshot.inputNanos);
         }
-        stdout.write(toPrint.getBytes());
-        stdout.flush();
+    }
+    
+    /**
+     * Sends a control sequence which clears the screen to the terminal,
+     * after any frame already sent
+     * 
+     * @param sequence
+     * @throws IOException 
+     */
+    private void writeControl(byte[] sequence) throws IOException {
+        writer.publishClear(sequence);
+    }
+    
+    /**
+     * Hands the frame to the writer, which only sends the cells that differ
+     * from what the terminal shows
+     * 
+     * @param screen
+     * @param inputNanos time of the oldest key press shown, or 0
+     * @throws IOException 
+     */
+    private void write(DisplayCharacter[][] screen, long inputNanos) throws IOException {
+        writer.publish(screen, inputNanos);
     }
 }
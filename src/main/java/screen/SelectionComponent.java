@@ -23,11 +23,8 @@
  */
 package screen;
 
-import java.io.IOException;
-import com.github.kwhat.jnativehook.GlobalScreen;
-//import com.github.kwhat.jnativehook.NativeHookException;
-import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
-import com.github.kwhat.jnativehook.keyboard.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  *
@@ -35,16 +32,20 @@ import com.github.kwhat.jnativehook.keyboard.*;
  * 
  * SelectionComponent - widget for selecting a choice from a list
  */
-public class SelectionComponent extends Component implements NativeKeyListener {
+public class SelectionComponent extends Component implements KeyListener, Interactive<Integer> {
+    private final InputSource input;
     private final String[] choices;
     private int selectedIndex;
-    // Set to true when the user has selected the choice
-    private boolean finalChoice;
+    // Each choice rendered, and rendered selected. Made on the first render.
+    private DisplayCharacter[][] rows, selectedRows;
+    // Completed with selectedIndex when the user has selected the choice
+    private final CompletableFuture<Integer> result = new CompletableFuture<>();
     
     /**
      * The order in choices is used in the selection field, and the chosen
      * selection's index is returned
      * 
+     * @param input where key presses are read from
      * @param startX
      * @param startY
      * @param sizeX
@@ -52,7 +53,7 @@ public class SelectionComponent extends Component implements NativeKeyListener {
      * @param layer
      * @param choices 
      */
-    public SelectionComponent(int startX, int startY, int sizeX, int sizeY, int layer, String[] choices) throws NullPointerException {
+    public SelectionComponent(InputSource input, int startX, int startY, int sizeX, int sizeY, int layer, String[] choices) throws NullPointerException {
         super(startX, startY, sizeX, sizeY, layer);
         
         for (String choice : choices) {
@@ -61,9 +62,9 @@ public class SelectionComponent extends Component implements NativeKeyListener {
             }
         }
         
+        this.input = input;
         this.choices = choices;
         this.selectedIndex = 0;
-        this.finalChoice = false;
         
         addListener();
     }
@@ -73,17 +74,18 @@ public class SelectionComponent extends Component implements NativeKeyListener {
      * 
      * sizeX is set with the length of the longest choice String
      * 
+     * @param input
      * @param startX
      * @param startY
      * @param layer
      * @param choices
      */
-    public SelectionComponent(int startX, int startY, int layer, String[] choices) throws NullPointerException {        
-        this(startX, startY, getLongestString(choices), choices.length, layer, choices);
+    public SelectionComponent(InputSource input, int startX, int startY, int layer, String[] choices) throws NullPointerException {        
+        this(input, startX, startY, getLongestString(choices), choices.length, layer, choices);
     }
     
     private void addListener() {
-        GlobalScreen.addNativeKeyListener(this);
+        input.addKeyListener(this);
     }
     
     private static int getLongestString(String[] a) throws NullPointerException {
@@ -104,13 +106,31 @@ public class SelectionComponent extends Component implements NativeKeyListener {
     @Override
     public DisplayCharacter[][] render() {
         int sizeX = super.getSizeX();
-        int sizeY = super.getSizeY();
-        DisplayCharacter[][] result = new DisplayCharacter[sizeY][sizeX];
+        if (rows == null || rows[0].length != sizeX) {
+            this.rows = renderChoices(false);
+            this.selectedRows = renderChoices(true);
+        }
+        // Rows are never modified once rendered, so they are shared between
+        // renders. Only the selection changes.
+        DisplayCharacter[][] result = rows.clone();
+        result[selectedIndex] = selectedRows[selectedIndex];
+        
+        return result;
+    }
+    
+    /**
+     * Renders every choice, underlined if selected is true
+     * 
+     * @param selected
+     * @return sizeY rows, a row for each choice
+     */
+    private DisplayCharacter[][] renderChoices(boolean selected) {
+        DisplayCharacter[][] result = new DisplayCharacter[super.getSizeY()][super.getSizeX()];
         super.clearAttr();
         
         for (int i = 0; i < choices.length; i++) {
             int choiceLength = choices[i].length();
-            if (i == selectedIndex) {
+            if (selected) {
                 super.addDisplayAttr(SGR.UNDERLINE, i, 0, choiceLength);
             }
             for (int c = 0; c < choiceLength; c++) {
@@ -120,59 +140,98 @@ public class SelectionComponent extends Component implements NativeKeyListener {
                 );
             }
         }
+        super.clearAttr();
         
         return result;
     }
 
     @Override
-    public void nativeKeyPressed(NativeKeyEvent e) {
-        // Only do something if finalChoice is not yet true
-        if (!finalChoice) {
-            switch (e.getKeyCode()) {
-                // Because the lower selections are the higher indices, "up is
-                // down"
-                case NativeKeyEvent.VC_DOWN:
-                    // Wrap selection if it goes over
-                    selectedIndex = (selectedIndex + 1) % choices.length;
-                    break;
-                case NativeKeyEvent.VC_UP:
-                    if (selectedIndex - 1 < 0)
-                        selectedIndex = choices.length - 1;
-                    else
-                        selectedIndex -= 1;
-                    break;
-                case NativeKeyEvent.VC_ENTER:
-                    // User has chosen. Assign finalChoice to true and remove the 
-                    // component from the screen component list
-                    this.finalChoice = true;
-                    Screen.removeComponent(this);
-                    GlobalScreen.removeNativeKeyListener(this);
-                // Ignore any other key presses
-                default: break;
+    public void keyPressed(KeyEvent e) {
+        // Only do something if there is no result yet and the component is
+        // on a screen. Keep the screen, since ENTER removes the component.
+        Screen screen = super.getScreen();
+        if (!result.isDone() && screen != null) {
+            boolean chosen = false;
+            // Hold the screen lock so a snapshot isn't taken while the
+            // component is being changed
+            synchronized (screen.getLock()) {
+                switch (e.getKeyCode()) {
+                    // Because the lower selections are the higher indices, "up
+                    // is down"
+                    case KeyEvent.DOWN:
+                        // Wrap selection if it goes over
+                        selectedIndex = (selectedIndex + 1) % choices.length;
+                        super.markDirty();
+                        break;
+                    case KeyEvent.UP:
+                        if (selectedIndex - 1 < 0)
+                            selectedIndex = choices.length - 1;
+                        else
+                            selectedIndex -= 1;
+                        super.markDirty();
+                        break;
+                    case KeyEvent.ENTER:
+                        // User has chosen. Remove the component from the
+                        // screen component list
+                        chosen = true;
+                        screen.removeComponent(this);
+                        input.removeKeyListener(this);
+                    // Ignore any other key presses
+                    default: break;
+                }
             }
 
-            // Can't throw an exception, so exit using try-catch
-            try {
-                Screen.refresh();
-            } catch(IOException exc) {
-                System.out.print(exc.getMessage());
-                System.exit(1);
+            screen.requestRefresh();
+            
+            // Complete outside of the lock, since callbacks run here
+            if (chosen) {
+                result.complete(selectedIndex);
+            }
+        }
+    }
+    
+    /**
+     * Returns the chosen index, completed as soon as the user presses enter
+     * 
+     * @return the future chosen index
+     */
+    @Override
+    public CompletableFuture<Integer> getResult() {
+        return result;
+    }
+    
+    /**
+     * Removes the component from its screen and stops listening for key
+     * presses. The result is cancelled.
+     */
+    @Override
+    public void cancel() {
+        Screen screen = super.getScreen();
+        if (screen != null) {
+            synchronized (screen.getLock()) {
+                if (super.getScreen() == screen) {
+                    screen.removeComponent(this);
+                }
             }
+            screen.requestRefresh();
         }
+        input.removeKeyListener(this);
+        result.cancel(false);
     }
     
     /**
-     * A hacky way of getting the chosen index
-     * Waits for finalChoice to be true and returns selectedIndex
+     * Waits for the user to choose, then returns the chosen index
      * 
      * @return the selected index
      * @throws java.lang.InterruptedException
+     * @throws java.util.concurrent.CancellationException if cancelled
      */
     public int getChoice() throws InterruptedException {
-        // Wait in intervals until there's a final choice
-        while (!finalChoice) {
-            Thread.sleep(100);
+        try {
+            return result.get();
+        } catch (ExecutionException ex) {
+            // Only ever completed normally or cancelled
+            throw new IllegalStateException(ex.getCause());
         }
-        return selectedIndex;
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+/**
+ * An immutable copy of what the screen should show: the components in layer
+ * order, where they were and what they rendered to at the time the snapshot
+ * was taken. <br>
+ *
+ * Snapshots are taken by the thread which changed the components (with the
+ * screen lock held) and handed to the render thread, which composites and
+ * draws them without touching the components themselves. Rendered arrays are
+ * never modified once returned by Component.getRendered(), so they can be
+ * shared between snapshots.
+ *
+ * @author kaiyu
+ */
+final class Snapshot {
+    /**
+     * Increases with every snapshot taken. Used to skip snapshots older than
+     * the one already drawn.
+     */
+    final long sequence;
+
+    /**
+     * System.nanoTime() of the oldest key press this snapshot shows the
+     * result of, or 0. Only set before the snapshot is handed to the render
+     * thread.
+     */
+    long inputNanos;
+
+    final Component[] components;
+
+    // Position (0-based), size and layer of each component
+    final int[] x, y, sizeX, sizeY, layer;
+
+    // Rendered output of each component
+    final DisplayCharacter[][][] rendered;
+
+    /**
+     * Takes a snapshot of the components. Must be called with the screen lock
+     * held, since dirty components are rendered.
+     *
+     * @param sequence
+     * @param components the components, ordered by layer
+     */
+    Snapshot(long sequence, Component[] components) {
+        int n = components.length;
+        this.sequence = sequence;
+        this.components = components;
+        this.x = new int[n];
+        this.y = new int[n];
+        this.sizeX = new int[n];
+        this.sizeY = new int[n];
+        this.layer = new int[n];
+        this.rendered = new DisplayCharacter[n][][];
+
+        for (int i = 0; i < n; i++) {
+            Component c = components[i];
+            x[i] = c.getStartX() - 1;
+            y[i] = c.getStartY() - 1;
+            sizeX[i] = c.getSizeX();
+            sizeY[i] = c.getSizeY();
+            layer[i] = c.getLayer();
+            rendered[i] = c.getRendered();
+        }
+    }
+
+    int size() {
+        return components.length;
+    }
+
+    /**
+     * Finds the index of a component, checking index hint first
+     *
+     * @param c
+     * @param hint
+     * @return the index, or -1 if c isn't in this snapshot
+     */
+    int indexOf(Component c, int hint) {
+        if (hint < components.length && components[hint] == c) {
+            return hint;
+        }
+        for (int i = 0; i < components.length; i++) {
+            if (components[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
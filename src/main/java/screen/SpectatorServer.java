@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Accepts read-only spectator connections and adds each one to a writer as a
+ * sink. Spectators see a keyframe of the screen when they connect, then every
+ * frame, e.g. with `nc host port` in a terminal at least as large as the
+ * screen. Anything they send is ignored. <br>
+ *
+ * A spectator which is slow or disconnects only affects itself: it skips
+ * ahead or is removed.
+ *
+ * @author kaiyu
+ */
+public final class SpectatorServer {
+    private final TerminalWriter writer;
+    private final ServerSocket serverSocket;
+
+    /**
+     * Listens on the port. Call start() to accept connections.
+     *
+     * @param writer the writer of the screen to show
+     * @param port
+     * @throws IOException if the port can't be listened on
+     */
+    public SpectatorServer(TerminalWriter writer, int port) throws IOException {
+        this.writer = writer;
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Starts accepting connections on a daemon thread
+     */
+    public void start() {
+        Thread thread = new Thread(this::run, "spectator-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops accepting connections. Spectators already connected keep
+     * watching.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void run() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException ex) {
+                // Closed
+                return;
+            }
+            try {
+                // Frames are written in one call each, so don't wait to fill
+                // packets
+                socket.setTcpNoDelay(true);
+                socket.shutdownInput();
+                writer.addSink("spectator-" + socket.getRemoteSocketAddress(), socket.getOutputStream());
+            } catch (IOException | IllegalStateException ex) {
+                try {
+                    socket.close();
+                } catch (IOException ex2) {
+                    
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads key presses from the terminal. <br>
+ *
+ * start() turns off line buffering and echo on the terminal (with stty), so
+ * every key press can be read from stdin as soon as it's made, and close()
+ * (or exiting) turns them back on. Arrow keys arrive as escape sequences,
+ * which are decoded here. Ctrl-C still interrupts the program. <br>
+ *
+ * Nothing native is loaded, and only key presses made in the terminal are
+ * seen.
+ *
+ * @author kaiyu
+ */
+public final class TerminalInput extends InputSource {
+    /**
+     * How long to wait for the rest of an escape sequence before taking an
+     * ESC on its own as the escape key
+     */
+    private static final long ESCAPE_TIMEOUT_MILLIS = 25;
+
+    // Decoder states
+    private static final int NORMAL = 0;
+    private static final int ESC = 1;   // after ESC
+    private static final int CSI = 2;   // after ESC [
+    private static final int SS3 = 3;   // after ESC O
+
+    private final InputStream in;
+    // The terminal to set the mode of, or null to leave it alone
+    private final File tty;
+
+    // Output of stty -g before start(). null when the mode isn't changed.
+    private String savedMode;
+    private Thread thread;
+    private volatile boolean closed;
+
+    // Only used on the input thread
+    private int state = NORMAL;
+
+    /**
+     * Reads from stdin, setting the mode of the controlling terminal
+     */
+    public TerminalInput() {
+        this(System.in, new File("/dev/tty"));
+    }
+
+    /**
+     * Reads (already unbuffered) key presses from in, e.g. a pipe
+     *
+     * @param in
+     */
+    public TerminalInput(InputStream in) {
+        this(in, null);
+    }
+
+    private TerminalInput(InputStream in, File tty) {
+        this.in = in;
+        this.tty = tty;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (thread != null) return;
+        if (tty != null) {
+            setMode();
+        }
+        this.thread = new Thread(this::run, "terminal-input");
+        // Don't keep the program running because of the input thread
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        restoreMode();
+    }
+
+    /**
+     * Saves the terminal mode, then turns off line buffering and echo. Done
+     * in one stty process, since starting a process is most of the time
+     * taken.
+     */
+    private void setMode() throws IOException {
+        Process stty = new ProcessBuilder("sh", "-c", "stty -g && stty -icanon -echo min 1 time 0")
+            .redirectInput(tty)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        String mode;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(stty.getInputStream()))) {
+            mode = out.readLine();
+        }
+        try {
+            if (stty.waitFor() != 0 || mode == null) {
+                throw new IOException("Unable to set the terminal mode with stty");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted setting the terminal mode", ex);
+        }
+        synchronized (this) {
+            this.savedMode = mode;
+        }
+        // Put the terminal back however the program exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::restoreMode, "terminal-restore"));
+    }
+
+    /**
+     * Puts the terminal back in the mode saved by setMode(), once
+     */
+    private synchronized void restoreMode() {
+        if (savedMode == null) return;
+        try {
+            new ProcessBuilder("stty", savedMode)
+                .redirectInput(tty)
+                .start()
+                .waitFor();
+        } catch (IOException ex) {
+            // Nothing else can be done, the terminal stays as it is
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        this.savedMode = null;
+    }
+
+    private void run() {
+        byte[] buf = new byte[64];
+        try {
+            while (!closed) {
+                int n = in.read(buf);
+                if (n < 0) break;
+                long now = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    decode(buf[i], now);
+                }
+                // An ESC with nothing after it is either the escape key, or
+                // the start of a sequence which hasn't all arrived yet
+                if (state == ESC && in.available() == 0) {
+                    Thread.sleep(ESCAPE_TIMEOUT_MILLIS);
+                    if (in.available() == 0) {
+                        state = NORMAL;
+                        key(KeyEvent.ESCAPE, now);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            // stdin was closed, stop reading
+        } catch (InterruptedException ex) {
+            // Exit the thread
+        }
+    }
+
+    /**
+     * Decodes one byte of input, dispatching a key press once one has been
+     * read
+     *
+     * @param b
+     * @param timeNanos when the byte was read
+     */
+    private void decode(byte b, long timeNanos) {
+        switch (state) {
+            case ESC:
+                if (b == '[') {
+                    state = CSI;
+                } else if (b == 'O') {
+                    state = SS3;
+                } else {
+                    // Escape, followed by a key pressed on its own
+                    state = NORMAL;
+                    key(KeyEvent.ESCAPE, timeNanos);
+                    decode(b, timeNanos);
+                }
+                break;
+            case CSI:
+                // Skip parameters (e.g. ESC [ 1 ; 5 A for ctrl+up) up to the
+                // final byte
+                if (b >= 0x40 && b <= 0x7E) {
+                    state = NORMAL;
+                    cursorKey(b, timeNanos);
+                }
+                break;
+            case SS3:
+                state = NORMAL;
+                cursorKey(b, timeNanos);
+                break;
+            default:
+                if (b == 0x1B) {
+                    state = ESC;
+                } else if (b == '\r' || b == '\n') {
+                    key(KeyEvent.ENTER, timeNanos);
+                } else if (b == ' ' || (b >= '0' && b <= '9') || (b >= 'A' && b <= 'Z')) {
+                    key(b, timeNanos);
+                } else if (b >= 'a' && b <= 'z') {
+                    key(b - 'a' + 'A', timeNanos);
+                }
+                // Ignore anything else
+                break;
+        }
+    }
+
+    /**
+     * Dispatches the arrow key for the final byte of a cursor key sequence.
+     * Other sequences (home, function keys etc) are ignored.
+     */
+    private void cursorKey(byte finalByte, long timeNanos) {
+        switch (finalByte) {
+            case 'A': key(KeyEvent.UP, timeNanos); break;
+            case 'B': key(KeyEvent.DOWN, timeNanos); break;
+            case 'C': key(KeyEvent.RIGHT, timeNanos); break;
+            case 'D': key(KeyEvent.LEFT, timeNanos); break;
+            default: break;
+        }
+    }
+
+    private void key(int keyCode, long timeNanos) {
+        dispatch(new KeyEvent(keyCode, timeNanos));
+    }
+}
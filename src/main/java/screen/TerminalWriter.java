@@ -0,0 +1,609 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Encodes frames once and writes them to any number of sinks (the terminal,
+ * a recording, spectators), each on its own thread, so a slow sink never
+ * blocks the render thread, input handlers or the other sinks. <br>
+ *
+ * The hand-off to the encoder thread holds one frame. A frame published
+ * while the previous one is still waiting to be encoded replaces it, and the
+ * replaced frame is counted as dropped. Frames are encoded by a FrameEncoder
+ * as the changes from the last frame encoded. <br>
+ *
+ * Encoded frames are kept in a history of the last HISTORY frames. A sink
+ * which is up to date writes the newest without copying it. A sink which is
+ * more than a frame behind skips to the newest, encoding the changes from
+ * what it shows itself (see FrameSink), so every sink always ends up showing
+ * the latest frame however far behind it falls. The history tells it whether
+ * a skipped frame cleared the screen. <br>
+ *
+ * Frame copies are recycled: there are at most three, one being filled, one
+ * waiting and one being encoded. Encoded frames are recycled as they leave
+ * the history, so once running, encoding a frame doesn't allocate.
+ *
+ * @author kaiyu
+ */
+public final class TerminalWriter {
+    /**
+     * Number of encoded frames kept for sinks which are behind
+     */
+    static final int HISTORY = 32;
+
+    private final int numLines;
+    private final int numColumns;
+
+    // Used only by the encoder thread
+    private final FrameEncoder encoder;
+    private final OutputBuffer buffer;
+
+    /*
+     * Guarded by this
+     */
+
+    // The frame waiting to be encoded, or null
+    private DisplayCharacter[][] ready;
+    // Time of the oldest key press ready shows, or 0
+    private long readyInputNanos;
+    // Control sequence to write before the frame, or null
+    private byte[] readyControl;
+    // True while the encoder thread is encoding
+    private boolean encoding;
+    // Frame copies free to be filled
+    private final DisplayCharacter[][][] spares = new DisplayCharacter[3][][];
+    private int numSpares;
+    private int numFrames;
+    private Thread thread;
+    boolean closed;
+
+    // The last HISTORY encoded frames, indexed by sequence % HISTORY
+    private final EncodedFrame[] history = new EncodedFrame[HISTORY];
+    // Sequence of the last frame encoded, 0 if there is none
+    long lastSequence;
+    // Copy of the last frame encoded which drew a frame (rather than only
+    // clearing the screen), for sinks skipping to it, and its sequence
+    final DisplayCharacter[][] latestFrame;
+    long latestFrameSequence;
+    // Sequence of the first encoded frame which draws a frame (rather than
+    // only clearing the screen), 0 if there is none yet
+    private long firstFrameSequence;
+
+    /**
+     * Sinks being written to. Copy on write, changed with this held.
+     */
+    private FrameSink[] sinks = new FrameSink[0];
+    private final FrameSink terminal;
+
+    /*
+     * Statistics, written by the encoder thread
+     */
+    private volatile long framesEncoded;
+    private volatile long framesDropped;
+    private volatile long bytesEncoded;
+    private volatile long cellsEncoded;
+    // System.nanoTime() when the terminal was first flushed showing a frame,
+    // or 0
+    private volatile long firstFrameNanos;
+
+    private final LatencyStats latency;
+
+    /**
+     *
+     * @param out        the terminal output
+     * @param numLines   number of lines in a frame
+     * @param numColumns number of columns in a frame
+     */
+    public TerminalWriter(OutputStream out, int numLines, int numColumns) {
+        this(out, numLines, numColumns, new LatencyStats());
+    }
+
+    /**
+     *
+     * @param out        the terminal output
+     * @param numLines   number of lines in a frame
+     * @param numColumns number of columns in a frame
+     * @param latency    the stats to record latency in, which may be shared
+     *                   with other writers
+     */
+    public TerminalWriter(OutputStream out, int numLines, int numColumns, LatencyStats latency) {
+        this.latency = latency;
+        this.numLines = numLines;
+        this.numColumns = numColumns;
+        this.encoder = new FrameEncoder(numLines, numColumns);
+        // Enough for a frame of plain characters. Grows if needed.
+        this.buffer = new OutputBuffer(numLines * (numColumns + 8));
+        this.latestFrame = new DisplayCharacter[numLines][numColumns];
+        DisplayCharacter blank = new DisplayCharacter(' ', SGRSequence.EMPTY);
+        for (DisplayCharacter[] row : latestFrame) {
+            Arrays.fill(row, blank);
+        }
+        // The terminal starts from the first frame, which is drawn in full
+        this.terminal = new FrameSink(this, "terminal", out, true, 1, numLines, numColumns);
+        synchronized (this) {
+            addSink(terminal);
+        }
+    }
+
+    /**
+     * Adds another output, which starts from a full redraw of what the
+     * terminal shows and then gets every frame it keeps up with. The stream
+     * is closed when the sink is closed or writing to it fails.
+     *
+     * @param name used to name the sink thread
+     * @param out
+     * @return the sink
+     */
+    public synchronized FrameSink addSink(String name, OutputStream out) {
+        if (closed)
+            throw new IllegalStateException("Writer is closed");
+        // Starts from a full redraw of the newest frame
+        FrameSink sink = new FrameSink(this, name, out, false, Math.max(lastSequence, 1), numLines, numColumns);
+        addSink(sink);
+        return sink;
+    }
+
+    private void addSink(FrameSink sink) {
+        FrameSink[] grown = Arrays.copyOf(sinks, sinks.length + 1);
+        grown[sinks.length] = sink;
+        sinks = grown;
+        // Sinks added before anything is published start with the encoder
+        if (thread != null) {
+            sink.start();
+        }
+    }
+
+    /**
+     * Removes a sink which has exited. Called by the sink with this held.
+     */
+    void removeSink(FrameSink sink) {
+        for (int i = 0; i < sinks.length; i++) {
+            if (sinks[i] == sink) {
+                FrameSink[] shrunk = new FrameSink[sinks.length - 1];
+                System.arraycopy(sinks, 0, shrunk, 0, i);
+                System.arraycopy(sinks, i + 1, shrunk, i, sinks.length - i - 1);
+                sinks = shrunk;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the sinks being written to, the terminal first
+     *
+     * @return a copy of the sinks
+     */
+    public synchronized FrameSink[] getSinks() {
+        return sinks.clone();
+    }
+
+    /**
+     * Returns the sink writing to the terminal
+     *
+     * @return the terminal sink
+     */
+    public FrameSink getTerminalSink() {
+        return terminal;
+    }
+
+    /**
+     * Copies the frame and hands it to the encoder thread, then returns. If
+     * the last frame published hasn't started being encoded, it is dropped.
+     *
+     * @param frame      numLines x numColumns cells, none of them null
+     * @param inputNanos time of the oldest key press the frame shows, or 0
+     * @throws IOException if writing an earlier frame to the terminal failed
+     */
+    synchronized void publish(DisplayCharacter[][] frame, long inputNanos) throws IOException {
+        throwError();
+        if (closed) {
+            return;
+        }
+        DisplayCharacter[][] copy;
+        if (numSpares > 0) {
+            copy = spares[--numSpares];
+        } else {
+            // Only happens while fewer than three copies exist
+            copy = new DisplayCharacter[numLines][numColumns];
+            numFrames++;
+        }
+        for (int r = 0; r < numLines; r++) {
+            System.arraycopy(frame[r], 0, copy[r], 0, numColumns);
+        }
+        if (ready != null) {
+            // The dropped frame's key presses are shown by this one
+            framesDropped++;
+            release(ready);
+            inputNanos = KeyEvent.oldest(inputNanos, readyInputNanos);
+        }
+        ready = copy;
+        readyInputNanos = inputNanos;
+        start();
+    }
+
+    /**
+     * Hands a control sequence which clears the screen to the encoder
+     * thread. It is written before the next frame, and the frame is drawn in
+     * full. A frame waiting to be encoded is dropped, since it would be
+     * cleared.
+     *
+     * @param sequence
+     * @throws IOException if writing an earlier frame to the terminal failed
+     */
+    synchronized void publishClear(byte[] sequence) throws IOException {
+        throwError();
+        if (closed) {
+            return;
+        }
+        if (ready != null) {
+            framesDropped++;
+            release(ready);
+            ready = null;
+        }
+        readyControl = sequence;
+        start();
+    }
+
+    private void start() {
+        if (thread == null) {
+            // Started on first use, so screens which never draw don't have
+            // a thread
+            thread = new Thread(this::run, "terminal-writer");
+            thread.setDaemon(true);
+            thread.start();
+            for (FrameSink sink : sinks) {
+                sink.start();
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the sequence of the oldest frame kept. Call with this held.
+     */
+    long oldestSequence() {
+        return Math.max(lastSequence - HISTORY + 1, 1);
+    }
+
+    /**
+     * Returns the frame with the sequence, which must be between
+     * oldestSequence() and lastSequence. Call with this held.
+     */
+    EncodedFrame frameAt(long sequence) {
+        return history[(int) (sequence % HISTORY)];
+    }
+
+    /**
+     * Copies latestFrame into to. Call with this held.
+     */
+    void copyLatestFrame(DisplayCharacter[][] to) {
+        for (int r = 0; r < numLines; r++) {
+            System.arraycopy(latestFrame[r], 0, to[r], 0, numColumns);
+        }
+    }
+
+    /**
+     * Adds the encoded frame to the history, reusing the frame it replaces
+     * if no sink is writing it. Call with this held.
+     */
+    private void append(OutputBuffer bytes, boolean keyframe, long inputNanos) {
+        lastSequence++;
+        int i = (int) (lastSequence % HISTORY);
+        EncodedFrame frame = history[i];
+        if (frame == null || frame.readers > 0) {
+            // A slow sink is still writing the old frame. It's dropped from
+            // the history, and freed once the sink is done.
+            frame = new EncodedFrame();
+            history[i] = frame;
+        }
+        frame.set(lastSequence, bytes, keyframe, inputNanos);
+    }
+
+    /**
+     * Waits until every frame published has been written to the terminal
+     * (or dropped) and the terminal flushed. Other sinks aren't waited for.
+     *
+     * @throws IOException if writing to the terminal failed
+     */
+    public synchronized void flush() throws IOException {
+        try {
+            while (ready != null || readyControl != null || encoding
+                    || (!terminal.detached && (terminal.writing || terminal.next <= lastSequence))) {
+                wait();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        throwError();
+    }
+
+    /**
+     * Writes what is left to the terminal, then stops the encoder. Other
+     * sinks are given up to a second to catch up before their streams are
+     * closed. Frames published after this are ignored.
+     *
+     * @throws IOException if writing to the terminal failed
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            flush();
+            closed = true;
+            notifyAll();
+            long deadline = System.currentTimeMillis() + 1000;
+            try {
+                for (FrameSink sink : sinks) {
+                    if (sink != terminal) {
+                        sink.awaitExit(deadline);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Called by the terminal sink with this held once it has written and
+     * flushed the frames up to the sequence
+     *
+     * @param sequence   the last frame written
+     * @param flushNanos System.nanoTime() after the flush
+     */
+    void flushed(long sequence, long flushNanos) {
+        if (firstFrameNanos == 0 && firstFrameSequence != 0 && sequence >= firstFrameSequence) {
+            firstFrameNanos = flushNanos;
+        }
+    }
+
+    private void release(DisplayCharacter[][] frame) {
+        if (numSpares < spares.length) {
+            spares[numSpares++] = frame;
+        }
+    }
+
+    private void throwError() throws IOException {
+        IOException ex = terminal.takeError();
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    private void run() {
+        while (true) {
+            DisplayCharacter[][] frame;
+            byte[] control;
+            long inputNanos;
+            synchronized (this) {
+                try {
+                    while (ready == null && readyControl == null && !closed) {
+                        wait();
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (ready == null && readyControl == null) {
+                    // Closed
+                    thread = null;
+                    return;
+                }
+                frame = ready;
+                control = readyControl;
+                inputNanos = readyInputNanos;
+                ready = null;
+                readyInputNanos = 0;
+                readyControl = null;
+                encoding = true;
+            }
+
+            // A frame drawn from a cleared screen can be started from
+            boolean fullRedraw = control != null || !encoder.isValid();
+            buffer.reset();
+            if (control != null) {
+                buffer.put(control);
+                encoder.invalidate();
+            }
+            if (frame != null) {
+                encode(frame, fullRedraw);
+            }
+
+            synchronized (this) {
+                if (buffer.length() > 0) {
+                    append(buffer, fullRedraw, inputNanos);
+                    framesEncoded++;
+                    bytesEncoded += buffer.length();
+                    if (frame != null) {
+                        if (firstFrameSequence == 0) {
+                            firstFrameSequence = lastSequence;
+                        }
+                        for (int r = 0; r < numLines; r++) {
+                            System.arraycopy(frame[r], 0, latestFrame[r], 0, numColumns);
+                        }
+                        latestFrameSequence = lastSequence;
+                    }
+                }
+                if (frame != null) {
+                    release(frame);
+                }
+                encoding = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Encodes the frame into buffer. Kept out of run(), so the JIT can
+     * remove the event's allocation when it isn't recorded.
+     */
+    private void encode(DisplayCharacter[][] frame, boolean fullRedraw) {
+        EncodeEvent event = FlightRecorder.isInitialized() ? new EncodeEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long start = System.nanoTime();
+        int cellsChanged = encoder.encode(frame, buffer);
+        cellsEncoded += cellsChanged;
+        latency.encode.record(System.nanoTime() - start);
+        if (event != null && event.shouldCommit()) {
+            event.cellsChanged = cellsChanged;
+            event.bytes = buffer.length();
+            event.fullRedraw = fullRedraw;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the memory used by the frame copies, encoder, kept encoded
+     * frames and sinks, in bytes
+     *
+     * @return the estimated size in bytes
+     */
+    synchronized long getBufferBytes() {
+        // The encoder's copy of what the terminal shows and latestFrame are
+        // two more frames
+        long frameBytes = 16 + numLines * (16 + 4L * numColumns);
+        long historyBytes = 16 + 4L * HISTORY;
+        for (EncodedFrame f : history) {
+            if (f != null) {
+                historyBytes += 40 + f.bytes.length;
+            }
+        }
+        long sinkBytes = 0;
+        for (FrameSink sink : sinks) {
+            sinkBytes += sink.getBufferBytes();
+        }
+        return (numFrames + 2) * frameBytes + 32 + buffer.capacity() + historyBytes + sinkBytes;
+    }
+
+    /**
+     * Returns the latency of each stage between key presses and the terminal.
+     * The terminal sink records the write and end to end latency.
+     *
+     * @return the latency stats
+     */
+    public LatencyStats getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of frames encoded. Frames with no changes aren't
+     * counted.
+     *
+     * @return frames encoded
+     */
+    public long getFramesEncoded() {
+        return framesEncoded;
+    }
+
+    public long getBytesEncoded() {
+        return bytesEncoded;
+    }
+
+    /**
+     * Returns the number of cells written in all frames encoded, so the
+     * mean number of cells changed per frame is this / getFramesEncoded()
+     *
+     * @return cells encoded
+     */
+    public long getCellsEncoded() {
+        return cellsEncoded;
+    }
+
+    /**
+     * Returns the number of frames written to the terminal
+     *
+     * @return frames written
+     */
+    public long getFramesWritten() {
+        return terminal.getFramesWritten();
+    }
+
+    /**
+     * Returns the number of frames replaced by a newer frame before they
+     * were encoded, plus those the terminal skipped by falling more than a
+     * frame behind
+     *
+     * @return frames dropped
+     */
+    public long getFramesDropped() {
+        return framesDropped + terminal.getFramesSkipped();
+    }
+
+    public long getBytesWritten() {
+        return terminal.getBytesWritten();
+    }
+
+    /**
+     * Returns when the first frame was written and flushed to the terminal,
+     * as System.nanoTime(). Clearing the screen doesn't count as a frame.
+     *
+     * @return the time, or 0 if no frame has been written yet
+     */
+    public long getFirstFrameNanos() {
+        return firstFrameNanos;
+    }
+
+    /**
+     * Waits until the first frame has been written and flushed to the
+     * terminal, or the writer is closed
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void awaitFirstFrame() throws InterruptedException {
+        while (firstFrameNanos == 0 && !closed && !terminal.detached) {
+            wait();
+        }
+    }
+
+    /**
+     * Returns how long writing and flushing the last frames to the terminal
+     * took, in nanoseconds
+     *
+     * @return the last flush latency
+     */
+    public long getLastFlushNanos() {
+        return terminal.getLastFlushNanos();
+    }
+
+    public long getMaxFlushNanos() {
+        return terminal.getMaxFlushNanos();
+    }
+
+    /**
+     * Returns the mean time taken to write and flush frames to the terminal,
+     * in nanoseconds
+     *
+     * @return the mean flush latency, or 0 if nothing has been written
+     */
+    public long getMeanFlushNanos() {
+        return terminal.getMeanFlushNanos();
+    }
+}
@@ -56,7 +56,14 @@ public class TextComponent extends Component {
                     )
             );
         
-        this.text = newText;
+        if (!newText.equals(text)) {
+            this.text = newText;
+            super.markDirty();
+        }
+    }
+    
+    public String getText() {
+        return text;
     }
     
     @Override
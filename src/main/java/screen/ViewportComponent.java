@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.util.Arrays;
+
+/**
+ * Component showing a window (the viewport) into a CellGrid, which can be
+ * much larger than the screen. Only the cells inside the viewport are read
+ * when rendering, so the cost of a render depends on the size of the
+ * component and not the size of the grid. <br>
+ *
+ * The component doesn't know when the grid changes. Whoever changes the grid
+ * should call markCellDirty() for each cell changed, or markDirty() if most of
+ * the grid changed. When only some cells are marked, the next render copies
+ * the rows they are on from the last render and reads just those cells.
+ *
+ * @author kaiyu
+ */
+public class ViewportComponent extends Component {
+    private final CellGrid grid;
+
+    // Grid coordinates of the top left cell of the viewport
+    private int originRow, originColumn;
+
+    /**
+     * Number of cells to keep between a cell scrolled to with scrollTo() and
+     * the edge of the viewport, where the grid allows it
+     */
+    private int margin;
+
+    /**
+     * Last result of render(). Never modified once returned; a partial render
+     * copies the rows it changes.
+     */
+    private DisplayCharacter[][] rendered;
+
+    // Set when the whole viewport has to be read again on the next render
+    private boolean fullRender = true;
+
+    // Grid coordinates of the cells marked with markCellDirty() since the
+    // last render
+    private int[] damagedRows = new int[16];
+    private int[] damagedColumns = new int[16];
+    private int numDamaged;
+
+    /**
+     *
+     * @param startX
+     * @param startY
+     * @param sizeX
+     * @param sizeY
+     * @param layer
+     * @param grid
+     */
+    public ViewportComponent(int startX, int startY, int sizeX, int sizeY, int layer, CellGrid grid) {
+        super(startX, startY, sizeX, sizeY, layer);
+        this.grid = grid;
+        this.originRow = 0;
+        this.originColumn = 0;
+        this.margin = 2;
+    }
+
+    public CellGrid getGrid() {
+        return grid;
+    }
+
+    public int getOriginRow() {
+        return originRow;
+    }
+
+    public int getOriginColumn() {
+        return originColumn;
+    }
+
+    public void setMargin(int margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * Moves the viewport so its top left cell is at row, column of the grid.
+     * The origin is clamped so the viewport doesn't go past the end of the
+     * grid.
+     *
+     * @param row
+     * @param column
+     */
+    public void setOrigin(int row, int column) {
+        int maxRow = Math.max(grid.getRows() - super.getSizeY(), 0);
+        int maxColumn = Math.max(grid.getColumns() - super.getSizeX(), 0);
+        row = Math.min(Math.max(row, 0), maxRow);
+        column = Math.min(Math.max(column, 0), maxColumn);
+
+        if (row != originRow || column != originColumn) {
+            this.originRow = row;
+            this.originColumn = column;
+            markDirty();
+        }
+    }
+
+    /**
+     * Scrolls the viewport the least amount needed to show the cell at row,
+     * column with at least margin cells between it and the edge. Used to
+     * follow a cursor.
+     *
+     * @param row
+     * @param column
+     */
+    public void scrollTo(int row, int column) {
+        int rowMargin = Math.min(margin, (super.getSizeY() - 1) / 2);
+        int columnMargin = Math.min(margin, (super.getSizeX() - 1) / 2);
+        int newRow = originRow;
+        int newColumn = originColumn;
+
+        if (row - rowMargin < newRow) {
+            newRow = row - rowMargin;
+        } else if (row + rowMargin >= newRow + super.getSizeY()) {
+            newRow = row + rowMargin - super.getSizeY() + 1;
+        }
+        if (column - columnMargin < newColumn) {
+            newColumn = column - columnMargin;
+        } else if (column + columnMargin >= newColumn + super.getSizeX()) {
+            newColumn = column + columnMargin - super.getSizeX() + 1;
+        }
+
+        setOrigin(newRow, newColumn);
+    }
+
+    /**
+     * Marks the whole viewport to be read from the grid on the next render.
+     */
+    @Override
+    public void markDirty() {
+        this.fullRender = true;
+        this.numDamaged = 0;
+        super.markDirty();
+    }
+
+    /**
+     * Marks one cell of the grid as changed. Cells outside of the viewport
+     * are ignored when rendering.
+     *
+     * @param row
+     * @param column
+     */
+    public void markCellDirty(int row, int column) {
+        if (fullRender) {
+            return;
+        }
+        // Past about half the viewport, reading everything is cheaper than
+        // tracking the cells
+        if (numDamaged >= super.getSizeX() * super.getSizeY() / 2) {
+            markDirty();
+            return;
+        }
+        if (numDamaged == damagedRows.length) {
+            damagedRows = Arrays.copyOf(damagedRows, numDamaged * 2);
+            damagedColumns = Arrays.copyOf(damagedColumns, numDamaged * 2);
+        }
+        damagedRows[numDamaged] = row;
+        damagedColumns[numDamaged] = column;
+        numDamaged++;
+        super.markDirty();
+    }
+
+    @Override
+    public DisplayCharacter[][] render() {
+        DisplayCharacter[][] result = fullRender || rendered == null ? renderAll() : renderDamaged();
+        this.rendered = result;
+        this.fullRender = false;
+        this.numDamaged = 0;
+        return result;
+    }
+
+    /**
+     * Copies the last render, replacing only the cells marked dirty. Rows
+     * without a dirty cell are shared with the last render.
+     */
+    private DisplayCharacter[][] renderDamaged() {
+        DisplayCharacter[][] result = rendered.clone();
+        boolean[] copied = new boolean[result.length];
+        int rows = Math.min(result.length, grid.getRows() - originRow);
+        int columns = Math.min(super.getSizeX(), grid.getColumns() - originColumn);
+        for (int i = 0; i < numDamaged; i++) {
+            int r = damagedRows[i] - originRow;
+            int c = damagedColumns[i] - originColumn;
+            if (r < 0 || r >= rows || c < 0 || c >= columns) {
+                continue;
+            }
+            if (!copied[r]) {
+                result[r] = result[r].clone();
+                copied[r] = true;
+            }
+            result[r][c] = grid.getCell(damagedRows[i], damagedColumns[i]);
+        }
+        return result;
+    }
+
+    private DisplayCharacter[][] renderAll() {
+        int sizeX = super.getSizeX();
+        int sizeY = super.getSizeY();
+        DisplayCharacter[][] result = new DisplayCharacter[sizeY][sizeX];
+
+        // Only read the part of the grid inside the viewport. Cells past the
+        // end of the grid are left empty.
+        int rows = Math.min(sizeY, grid.getRows() - originRow);
+        int columns = Math.min(sizeX, grid.getColumns() - originColumn);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                result[r][c] = grid.getCell(originRow + r, originColumn + c);
+            }
+        }
+
+        return result;
+    }
+}
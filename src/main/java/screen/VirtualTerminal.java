@@ -0,0 +1,377 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 kaiyu.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package screen;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An in-memory terminal. Bytes written to it are parsed as the control
+ * sequences Screen writes, and applied to a grid of cells, so what a real
+ * terminal would show can be read back without one. Used to check rendering
+ * and measure output (bytes per frame, frames per second) where there is no
+ * terminal, e.g. Screen(new VirtualTerminal(25, 80), 24, 80). <br>
+ *
+ * Understands UTF-8 text, carriage return, line feed, backspace, and the CSI
+ * sequences for cursor position (H, f), cursor movement (A, B, C, D), erase in
+ * display (J) and line (K), and display attributes (m). Anything else is
+ * ignored. Writing past the last column wraps to the next line, and past the
+ * last line scrolls, like xterm. <br>
+ *
+ * Writing doesn't allocate, so it can stand in for a terminal where the
+ * allocations of the writing thread are measured.
+ *
+ * @author kaiyu
+ */
+public final class VirtualTerminal extends OutputStream {
+    // SGR by control sequence number, for the m sequence
+    private static final SGR[] SGR_BY_NUMBER = new SGR[256];
+
+    static {
+        for (SGR a : SGR.values()) {
+            SGR_BY_NUMBER[a.n] = a;
+        }
+    }
+
+    // Parser states
+    private static final int GROUND = 0, ESCAPE = 1, CSI = 2;
+
+    private final int numLines;
+    private final int numColumns;
+    // Character and attributes of each cell
+    private final char[][] chars;
+    private final SGRSequence[][] cellAttrs;
+
+    // Cursor position, 0-based
+    private int cursorLine, cursorColumn;
+    // Set after writing the last column. The next character wraps.
+    private boolean pendingWrap;
+    private SGRSequence attrs = SGRSequence.EMPTY;
+
+    private int state = GROUND;
+    // Parameters of the CSI sequence being parsed. -1 is a missing parameter.
+    private final int[] params = new int[16];
+    private int numParams;
+
+    // UTF-8 character being decoded
+    private int codePoint, remainingBytes;
+
+    private long bytesReceived;
+    private long flushes;
+
+    /**
+     *
+     * @param numLines   number of lines. One more than the Screen's, for the
+     *                   line the cursor is parked on.
+     * @param numColumns number of columns
+     */
+    public VirtualTerminal(int numLines, int numColumns) {
+        this.numLines = numLines;
+        this.numColumns = numColumns;
+        this.chars = new char[numLines][numColumns];
+        this.cellAttrs = new SGRSequence[numLines][numColumns];
+        for (int r = 0; r < numLines; r++) {
+            erase(r, 0, numColumns);
+        }
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        bytesReceived++;
+        accept(b & 0xff);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        bytesReceived += len;
+        for (int i = off; i < off + len; i++) {
+            accept(b[i] & 0xff);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        flushes++;
+    }
+
+    private void accept(int b) {
+        switch (state) {
+            case ESCAPE:
+                if (b == '[') {
+                    state = CSI;
+                    numParams = 0;
+                    params[0] = -1;
+                } else {
+                    state = GROUND;
+                }
+                return;
+            case CSI:
+                acceptCsi(b);
+                return;
+            default:
+                break;
+        }
+
+        if (remainingBytes > 0) {
+            if ((b & 0xC0) == 0x80) {
+                codePoint = (codePoint << 6) | (b & 0x3F);
+                if (--remainingBytes == 0) {
+                    print((char) codePoint);
+                }
+                return;
+            }
+            // Malformed, drop the partial character
+            remainingBytes = 0;
+        }
+
+        if (b >= 0xE0) {
+            codePoint = b & 0x0F;
+            remainingBytes = 2;
+        } else if (b >= 0xC0) {
+            codePoint = b & 0x1F;
+            remainingBytes = 1;
+        } else if (b >= 0x80) {
+            // Stray continuation byte
+        } else if (b == 0x1B) {
+            state = ESCAPE;
+        } else if (b == '\r') {
+            cursorColumn = 0;
+            pendingWrap = false;
+        } else if (b == '\n') {
+            lineFeed();
+        } else if (b == '\b') {
+            cursorColumn = Math.max(cursorColumn - 1, 0);
+            pendingWrap = false;
+        } else if (b >= ' ') {
+            print((char) b);
+        }
+    }
+
+    private void acceptCsi(int b) {
+        if (b >= '0' && b <= '9') {
+            int p = params[numParams];
+            params[numParams] = (p < 0 ? 0 : p * 10) + (b - '0');
+        } else if (b == ';') {
+            if (numParams < params.length - 1) {
+                params[++numParams] = -1;
+            }
+        } else if (b >= 0x40 && b <= 0x7E) {
+            numParams++;
+            state = GROUND;
+            execute((char) b);
+        }
+        // Anything else (private markers, intermediates) is ignored
+    }
+
+    // Returns parameter i, or def if it is missing or 0
+    private int param(int i, int def) {
+        return i < numParams && params[i] > 0 ? params[i] : def;
+    }
+
+    private void execute(char command) {
+        pendingWrap = false;
+        switch (command) {
+            case 'H':
+            case 'f':
+                cursorLine = clamp(param(0, 1) - 1, numLines);
+                cursorColumn = clamp(param(1, 1) - 1, numColumns);
+                break;
+            case 'A':
+                cursorLine = clamp(cursorLine - param(0, 1), numLines);
+                break;
+            case 'B':
+                cursorLine = clamp(cursorLine + param(0, 1), numLines);
+                break;
+            case 'C':
+                cursorColumn = clamp(cursorColumn + param(0, 1), numColumns);
+                break;
+            case 'D':
+                cursorColumn = clamp(cursorColumn - param(0, 1), numColumns);
+                break;
+            case 'J':
+                eraseDisplay(numParams > 0 && params[0] > 0 ? params[0] : 0);
+                break;
+            case 'K':
+                eraseLine(cursorLine, numParams > 0 && params[0] > 0 ? params[0] : 0);
+                break;
+            case 'm':
+                for (int i = 0; i < numParams; i++) {
+                    int n = params[i] < 0 ? 0 : params[i];
+                    if (n == 0) {
+                        attrs = SGRSequence.EMPTY;
+                    } else if (n < SGR_BY_NUMBER.length && SGR_BY_NUMBER[n] != null) {
+                        attrs = attrs.append(SGR_BY_NUMBER[n]);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.min(Math.max(value, 0), size - 1);
+    }
+
+    private void print(char ch) {
+        if (pendingWrap) {
+            cursorColumn = 0;
+            lineFeed();
+        }
+        chars[cursorLine][cursorColumn] = ch;
+        cellAttrs[cursorLine][cursorColumn] = attrs;
+        if (cursorColumn == numColumns - 1) {
+            pendingWrap = true;
+        } else {
+            cursorColumn++;
+        }
+    }
+
+    private void lineFeed() {
+        pendingWrap = false;
+        if (cursorLine < numLines - 1) {
+            cursorLine++;
+            return;
+        }
+        // Scroll up a line
+        char[] topChars = chars[0];
+        SGRSequence[] topAttrs = cellAttrs[0];
+        System.arraycopy(chars, 1, chars, 0, numLines - 1);
+        System.arraycopy(cellAttrs, 1, cellAttrs, 0, numLines - 1);
+        chars[numLines - 1] = topChars;
+        cellAttrs[numLines - 1] = topAttrs;
+        erase(numLines - 1, 0, numColumns);
+    }
+
+    // Blanks the columns from, to (exclusive) of the line
+    private void erase(int line, int from, int to) {
+        Arrays.fill(chars[line], from, to, ' ');
+        Arrays.fill(cellAttrs[line], from, to, SGRSequence.EMPTY);
+    }
+
+    private void eraseDisplay(int mode) {
+        int from = mode == 0 ? cursorLine + 1 : 0;
+        int to = mode == 1 ? cursorLine : numLines;
+        for (int r = from; r < to; r++) {
+            erase(r, 0, numColumns);
+        }
+        if (mode != 2) {
+            eraseLine(cursorLine, mode);
+        }
+    }
+
+    private void eraseLine(int line, int mode) {
+        int from = mode == 0 ? cursorColumn : 0;
+        int to = mode == 1 ? cursorColumn + 1 : numColumns;
+        erase(line, from, to);
+    }
+
+    public int getNumLines() {
+        return numLines;
+    }
+
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    /**
+     * Returns the character shown at line, column (0-based)
+     *
+     * @param line
+     * @param column
+     * @return the character
+     */
+    public synchronized char getChar(int line, int column) {
+        return chars[line][column];
+    }
+
+    /**
+     * Returns the display attributes of the cell at line, column (0-based)
+     *
+     * @param line
+     * @param column
+     * @return the attributes
+     */
+    public synchronized SGRSequence getAttrs(int line, int column) {
+        return cellAttrs[line][column];
+    }
+
+    /**
+     * Returns the characters of a line, without display attributes
+     *
+     * @param line
+     * @return the text of the line
+     */
+    public synchronized String getLine(int line) {
+        return new String(chars[line]);
+    }
+
+    /**
+     * Checks whether the terminal shows the frame in its top left corner,
+     * characters and display attributes. Characters Screen can't print are
+     * expected to show as spaces.
+     *
+     * @param frame a frame from Screen.render()
+     * @return true if every cell matches
+     */
+    public synchronized boolean shows(DisplayCharacter[][] frame) {
+        for (int r = 0; r < frame.length; r++) {
+            for (int c = 0; c < frame[r].length; c++) {
+                DisplayCharacter expected = frame[r][c];
+                char ch = Glyphs.isPrintable(expected.character) ? expected.character : ' ';
+                if (chars[r][c] != ch || cellAttrs[r][c] != expected.attrs) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public synchronized int getCursorLine() {
+        return cursorLine;
+    }
+
+    public synchronized int getCursorColumn() {
+        return cursorColumn;
+    }
+
+    /**
+     * Returns the number of bytes written to the terminal
+     *
+     * @return bytes received
+     */
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the number of times the terminal was flushed. Screen flushes
+     * once per frame written.
+     *
+     * @return the number of flushes
+     */
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+}